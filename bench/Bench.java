@@ -0,0 +1,134 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import compression.KCLBVH;
+import compression.KCLCompress;
+import compression.KCLDecompress;
+import compression.KCLQuery;
+import compression.KCLRayCaster;
+import types.Quatf;
+import types.Vector3f;
+import util.ByteConversions;
+import util.ValidationLevel;
+
+// dependency-free micro benchmarks for the parsing and query paths, see README.md.
+// every benchmark is warmed up, then timed over several iterations; the median time and the bytes
+// allocated by all threads (including pool workers) are reported per operation.
+public class Bench {
+
+	private static final int WARMUP = 5, ITERATIONS = 10;
+
+	private static final Map<String, Runnable> BENCHMARKS = new LinkedHashMap<>();
+
+	private static volatile Object sink; // keeps results alive
+
+	public static void main(String[] args) {
+		setup();
+		for(Map.Entry<String, Runnable> benchmark : BENCHMARKS.entrySet()) {
+			if(args.length == 0 || Arrays.stream(args).anyMatch(benchmark.getKey()::startsWith)) {
+				benchmark.getValue().run();
+			}
+		}
+	}
+
+	private static void setup() {
+		Random random = new Random(1);
+
+		// half floats: table decode against the per-value reference conversion
+		short[] halfs = new short[1 << 20];
+		for(int i=0;i<halfs.length;i++) {
+			halfs[i] = (short) random.nextInt();
+		}
+		float[] floats = new float[halfs.length];
+		short[] encoded = new short[halfs.length];
+		BENCHMARKS.put("halfs.toHalf", () -> measure("halfs.toHalf", halfs.length, () -> {
+			for(int i=0;i<halfs.length;i++) {
+				floats[i] = ByteConversions.toHalf(halfs[i] & 0xFFFF);
+			}
+		}));
+		BENCHMARKS.put("halfs.table", () -> measure("halfs.table", halfs.length, () -> ByteConversions.halfsToFloats(halfs, 0, floats, 0, halfs.length)));
+		BENCHMARKS.put("halfs.encode", () -> measure("halfs.encode", halfs.length, () -> ByteConversions.floatsToHalfs(floats, 0, encoded, 0, floats.length)));
+
+		// KCL parsing of a 200k triangle heightfield at every validation level
+		byte[] kcl = new KCLCompress(heightfield(316, random), new short[316*316*2]).compressed();
+		for(ValidationLevel level : ValidationLevel.values()) {
+			KCLDecompress.Options options = KCLDecompress.Options.builder().validation(level).build();
+			String name = "kcl.parse."+level;
+			BENCHMARKS.put(name, () -> measure(name, 1, () -> sink = new KCLDecompress(kcl, options)));
+		}
+
+		// batched downward rays against the polygon octrees and against BVHs, on one thread
+		KCLDecompress parsed = new KCLDecompress(kcl);
+		float[] rays = new float[100_000*6];
+		for(int i=0;i<rays.length;i+=6) {
+			rays[i] = random.nextFloat()*316;
+			rays[i+1] = 100;
+			rays[i+2] = random.nextFloat()*316;
+			rays[i+3] = random.nextFloat()*0.2f-0.1f;
+			rays[i+4] = -1;
+			rays[i+5] = random.nextFloat()*0.2f-0.1f;
+		}
+		float[] distances = new float[rays.length/6];
+		ForkJoinPool single = new ForkJoinPool(1);
+		KCLQuery[] bvhs = Arrays.stream(parsed.getModels()).map(KCLBVH::new).toArray(KCLQuery[]::new);
+		KCLRayCaster allModels = new KCLRayCaster(parsed.getModels(), single);
+		KCLRayCaster octreeCaster = new KCLRayCaster(parsed, parsed.getModels(), single), bvhCaster = new KCLRayCaster(parsed, bvhs, single);
+		BENCHMARKS.put("rays.allModels", () -> measure("rays.allModels", distances.length, () -> allModels.cast(rays, 200, distances, null, null)));
+		BENCHMARKS.put("rays.octree", () -> measure("rays.octree", distances.length, () -> octreeCaster.cast(rays, 200, distances, null, null)));
+		BENCHMARKS.put("rays.bvh", () -> measure("rays.bvh", distances.length, () -> bvhCaster.cast(rays, 200, distances, null, null)));
+
+		// destination variants of the vector operations, expected to allocate nothing
+		Quatf q = new Quatf(0.1f, 0.2f, 0.3f, 0.9f);
+		Vector3f v = new Vector3f(1, 2, 3), dest = new Vector3f(0, 0, 0);
+		BENCHMARKS.put("vector.rotate", () -> measure("vector.rotate", 1_000_000, () -> {
+			for(int i=0;i<1_000_000;i++) {
+				q.rotate(v, dest);
+			}
+		}));
+	}
+
+	// two triangles per cell
+	private static float[] heightfield(int size, Random random) {
+		float[] heights = new float[(size+1)*(size+1)];
+		for(int i=0;i<heights.length;i++) {
+			heights[i] = random.nextFloat()*4;
+		}
+		float[] vertices = new float[size*size*18];
+		int v = 0;
+		for(int z=0;z<size;z++) {
+			for(int x=0;x<size;x++) {
+				float h00 = heights[z*(size+1)+x], h10 = heights[z*(size+1)+x+1], h01 = heights[(z+1)*(size+1)+x], h11 = heights[(z+1)*(size+1)+x+1];
+				float[] cell = { x, h00, z, x, h01, z+1, x+1, h10, z, x+1, h10, z, x, h01, z+1, x+1, h11, z+1 };
+				System.arraycopy(cell, 0, vertices, v, 18);
+				v += 18;
+			}
+		}
+		return vertices;
+	}
+
+	private static void measure(String name, int operations, Runnable benchmark) {
+		for(int i=0;i<WARMUP;i++) {
+			benchmark.run();
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long[] times = new long[ITERATIONS];
+		long allocatedBefore = allocated(threads);
+		for(int i=0;i<ITERATIONS;i++) {
+			long start = System.nanoTime();
+			benchmark.run();
+			times[i] = System.nanoTime() - start;
+		}
+		long allocated = allocated(threads) - allocatedBefore;
+		Arrays.sort(times);
+		System.out.printf("%-24s %14.2f ns/op %12.2f B/op%n", name, (double) times[ITERATIONS/2] / operations, (double) allocated / ITERATIONS / operations);
+	}
+
+	private static long allocated(com.sun.management.ThreadMXBean threads) {
+		return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds())).filter(bytes -> bytes > 0).sum();
+	}
+
+}
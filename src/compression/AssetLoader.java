@@ -0,0 +1,206 @@
+package compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// loads many files with overlapping disk I/O and CPU work: files are read asynchronously, Yaz0 compressed ones are
+// decompressed on one pool and the results are parsed on another. the pools have bounded queues and a full queue
+// blocks the stage in front of it, so a slow stage throttles the reads instead of buffering whole files in memory.
+// load blocks while readConcurrency files are being read.
+public class AssetLoader<T> implements AutoCloseable {
+
+	private final Function<byte[], T> parser;
+	private final Semaphore reads;
+	private final ExecutorService readPool, decompressPool, parsePool;
+	private final Set<CompletableFuture<T>> pending = ConcurrentHashMap.newKeySet();
+	private volatile boolean closed;
+
+	// e.g. BYMLDecompress::new or bytes -> new SARCDecompress(bytes, -1)
+	public AssetLoader(Function<byte[], T> parser) {
+		this(parser, 4, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), 16);
+	}
+	public AssetLoader(Function<byte[], T> parser, int readConcurrency, int decompressThreads, int parseThreads, int queueCapacity) {
+		this.parser = parser;
+		reads = new Semaphore(readConcurrency);
+		readPool = Executors.newFixedThreadPool(readConcurrency, threads("asset-read"));
+		decompressPool = boundedPool(decompressThreads, queueCapacity, "asset-decompress");
+		parsePool = boundedPool(parseThreads, queueCapacity, "asset-parse");
+	}
+
+	private static ExecutorService boundedPool(int threads, int queueCapacity, String name) {
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), threads(name), (task, executor) -> {
+			if(executor.isShutdown()) {
+				throw new RejectedExecutionException(name+" pool is shut down");
+			}
+			try {
+				executor.getQueue().put(task); // blocks the submitting stage until there's room
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted while waiting for the "+name+" queue", e);
+			}
+		});
+	}
+
+	private static ThreadFactory threads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return task -> {
+			Thread thread = new Thread(task, name+"-"+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	public List<CompletableFuture<T>> loadAll(Collection<Path> files) {
+		List<CompletableFuture<T>> results = new ArrayList<>(files.size());
+		for(Path file : files) {
+			results.add(load(file));
+		}
+		return results;
+	}
+
+	public CompletableFuture<T> load(Path file) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		pending.add(result); // before checking closed, so close either waits for it or it's rejected
+		result.whenComplete((value, e) -> pending.remove(result));
+		if(closed) {
+			result.completeExceptionally(new RejectedExecutionException("AssetLoader is closed"));
+			return result;
+		}
+		try {
+			reads.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result.completeExceptionally(e);
+			return result;
+		}
+		try {
+			AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, Set.of(StandardOpenOption.READ), readPool);
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				channel.close();
+				throw new UnsupportedOperationException("Files larger than 2GB can't be loaded: "+file+" has "+size+" bytes");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			channel.read(buffer, 0, null, new ReadHandler(file, channel, buffer, result));
+		} catch (Throwable e) {
+			reads.release();
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	// reads until the buffer is full, then hands the data to the next stage
+	private class ReadHandler implements CompletionHandler<Integer, Void> {
+
+		private final Path file;
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer buffer;
+		private final CompletableFuture<T> result;
+
+		private ReadHandler(Path file, AsynchronousFileChannel channel, ByteBuffer buffer, CompletableFuture<T> result) {
+			this.file = file;
+			this.channel = channel;
+			this.buffer = buffer;
+			this.result = result;
+		}
+
+		@Override
+		public void completed(Integer read, Void attachment) {
+			try {
+				if(read >= 0 && buffer.hasRemaining()) {
+					channel.read(buffer, buffer.position(), null, this);
+					return;
+				}
+			} catch (Throwable e) {
+				failed(e, attachment);
+				return;
+			}
+			close();
+			if(buffer.hasRemaining()) {
+				result.completeExceptionally(new IOException("Unexpected end of "+file+" after "+buffer.position()+" bytes"));
+				return;
+			}
+			submit(decompressPool, result, () -> decompress(buffer.array(), result));
+		}
+
+		@Override
+		public void failed(Throwable e, Void attachment) {
+			close();
+			result.completeExceptionally(e);
+		}
+
+		private void close() {
+			reads.release();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// the data was read already
+			}
+		}
+	}
+
+	private void decompress(byte[] data, CompletableFuture<T> result) {
+		try {
+			byte[] decompressed = isYaz0(data) ? new YAZ0Decompress(data).decompressed() : data;
+			submit(parsePool, result, () -> parse(decompressed, result));
+		} catch (Throwable e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	private void parse(byte[] data, CompletableFuture<T> result) {
+		try {
+			result.complete(parser.apply(data));
+		} catch (Throwable e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	private static void submit(ExecutorService pool, CompletableFuture<?> result, Runnable task) {
+		try {
+			pool.execute(task);
+		} catch (Throwable e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	private static boolean isYaz0(byte[] data) {
+		return data.length >= 16 && data[0] == 'Y' && data[1] == 'a' && data[2] == 'z' && data[3] == '0';
+	}
+
+	// rejects new files and waits until the already submitted ones are finished,
+	// the pools are only shut down once nothing can be handed to them anymore
+	@Override
+	public void close() {
+		closed = true;
+		while(!pending.isEmpty()) {
+			for(CompletableFuture<T> result : List.copyOf(pending)) {
+				result.handle((value, e) -> null).join();
+			}
+		}
+		readPool.shutdown();
+		decompressPool.shutdown();
+		parsePool.shutdown();
+	}
+
+}
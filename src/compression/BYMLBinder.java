@@ -0,0 +1,380 @@
+package compression;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import compression.BYMLDecompress.Node.Type;
+
+// binds BYML hashes directly to records or classes, without creating the intermediate HashMaps.
+// keys are matched against the field/component name or the name given by @Key.
+// the hash key table is resolved once per file and type, values are read directly from the buffer.
+// instances are bound to one file and not thread-safe.
+public class BYMLBinder {
+
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target({ElementType.FIELD, ElementType.RECORD_COMPONENT})
+	public @interface Key {
+		String value();
+	}
+
+	private static final ClassValue<Schema> SCHEMAS = new ClassValue<>() {
+		@Override
+		protected Schema computeValue(Class<?> type) {
+			return new Schema(type);
+		}
+	};
+
+	private final BYMLView view;
+	private HashMap<String, Integer> hashKeyIndices;
+	private final HashMap<Schema, int[]> slotTables = new HashMap<>(); // maps schema => (hash key index => slot)
+
+	public BYMLBinder(byte[] dataArray) {
+		this(new BYMLView(dataArray));
+	}
+	public BYMLBinder(BYMLView view) {
+		this.view = view;
+	}
+
+	public <T> T bindRoot(Class<T> type) {
+		return bind(view.getRootType(), view.rootNodeOffset, type);
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T bind(Type type, int value, Class<T> target) {
+		return (T) convert(type, value, target);
+	}
+
+	public <T> List<T> bindList(int offset, Class<T> elementType) {
+		view.expectType(offset, Type.Array);
+		int size = view.getSize(offset);
+		ArrayList<T> list = new ArrayList<>(size);
+		for(int i=0;i<size;i++) {
+			list.add(bind(view.getArrayType(offset, i), view.getArrayValue(offset, i), elementType));
+		}
+		return list;
+	}
+
+	private Object convert(Type type, int value, java.lang.reflect.Type target) {
+		Class<?> raw = rawClass(target);
+		if(type == Type.NULL) {
+			if(raw.isPrimitive())
+				throw new UnsupportedOperationException("Cannot bind BYML null to "+target);
+			return null;
+		}
+		if(raw == Object.class) {
+			return view.getObject(type, value);
+		}
+		if(raw == String.class) {
+			expect(type, Type.String, target);
+			return view.getString(value);
+		}
+		if(raw == boolean.class || raw == Boolean.class) {
+			return bool(type, value, target);
+		}
+		if(raw == int.class || raw == Integer.class) {
+			return (int) integer(type, value, target);
+		}
+		if(raw == long.class || raw == Long.class) {
+			return integer(type, value, target);
+		}
+		if(raw == short.class || raw == Short.class) {
+			return (short) integer(type, value, target);
+		}
+		if(raw == byte.class || raw == Byte.class) {
+			return (byte) integer(type, value, target);
+		}
+		if(raw == float.class || raw == Float.class) {
+			return (float) real(type, value, target);
+		}
+		if(raw == double.class || raw == Double.class) {
+			return real(type, value, target);
+		}
+		if(raw == ByteBuffer.class) {
+			expect(type, Type.Binary, target);
+			return view.getBinary(value);
+		}
+		if(raw.isArray()) {
+			expect(type, Type.Array, target);
+			int size = view.getSize(value);
+			Object array = Array.newInstance(raw.getComponentType(), size);
+			for(int i=0;i<size;i++) {
+				Array.set(array, i, convert(view.getArrayType(value, i), view.getArrayValue(value, i), raw.getComponentType()));
+			}
+			return array;
+		}
+		if(raw == List.class || raw == Collection.class || raw == ArrayList.class) {
+			expect(type, Type.Array, target);
+			java.lang.reflect.Type elementType = typeArgument(target, 0);
+			int size = view.getSize(value);
+			ArrayList<Object> list = new ArrayList<>(size);
+			for(int i=0;i<size;i++) {
+				list.add(convert(view.getArrayType(value, i), view.getArrayValue(value, i), elementType));
+			}
+			return list;
+		}
+		if(raw == Map.class || raw == HashMap.class || raw == LinkedHashMap.class) {
+			expect(type, Type.Hash, target);
+			java.lang.reflect.Type valueType = typeArgument(target, 1);
+			int size = view.getSize(value);
+			LinkedHashMap<String, Object> map = new LinkedHashMap<>(size);
+			for(int i=0;i<size;i++) {
+				map.put(view.getHashKeyName(value, i), convert(view.getHashType(value, i), view.getHashValue(value, i), valueType));
+			}
+			return map;
+		}
+		expect(type, Type.Hash, target);
+		return bindHash(value, SCHEMAS.get(raw));
+	}
+
+	private Object bindHash(int offset, Schema schema) {
+		int[] slotTable = slotTable(schema);
+		int size = view.getSize(offset);
+		try {
+			if(schema.recordConstructor != null) {
+				// components are collected by kind, absent ones keep the default 0, false or null
+				long[] integers = new long[schema.integerCount];
+				double[] reals = new double[schema.realCount];
+				Object[] objects = new Object[schema.objectCount];
+				for(int i=0;i<size;i++) {
+					int slot = slotTable[view.getHashKey(offset, i)];
+					if(slot >= 0) {
+						collect(schema.slots[slot], view.getHashType(offset, i), view.getHashValue(offset, i), integers, reals, objects);
+					}
+				}
+				return (Object) schema.recordConstructor.invokeExact(integers, reals, objects);
+			}
+
+			Object object = (Object) schema.constructor.invokeExact();
+			for(int i=0;i<size;i++) {
+				int slot = slotTable[view.getHashKey(offset, i)];
+				if(slot >= 0) {
+					set(object, schema.slots[slot], view.getHashType(offset, i), view.getHashValue(offset, i));
+				}
+			}
+			return object;
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new UnsupportedOperationException("Failed to bind "+schema.type.getName(), e);
+		}
+	}
+
+	// primitives go through typed setters, so they don't get boxed
+	private void set(Object object, Slot slot, Type type, int value) throws Throwable {
+		if(type == Type.NULL && slot.raw.isPrimitive()) {
+			return;
+		}
+		switch(slot.kind) {
+		case BOOLEAN -> slot.setter.invokeExact(object, bool(type, value, slot.type));
+		case BYTE -> slot.setter.invokeExact(object, (byte) integer(type, value, slot.type));
+		case SHORT -> slot.setter.invokeExact(object, (short) integer(type, value, slot.type));
+		case INT -> slot.setter.invokeExact(object, (int) integer(type, value, slot.type));
+		case LONG -> slot.setter.invokeExact(object, integer(type, value, slot.type));
+		case FLOAT -> slot.setter.invokeExact(object, (float) real(type, value, slot.type));
+		case DOUBLE -> slot.setter.invokeExact(object, real(type, value, slot.type));
+		case OBJECT -> slot.setter.invokeExact(object, convert(type, value, slot.type));
+		}
+	}
+
+	// record components: integral and boolean values as long, floating point as double, the constructor narrows them
+	private void collect(Slot slot, Type type, int value, long[] integers, double[] reals, Object[] objects) {
+		if(type == Type.NULL && slot.raw.isPrimitive()) {
+			return;
+		}
+		switch(slot.kind) {
+		case BOOLEAN -> integers[slot.index] = bool(type, value, slot.type) ? 1 : 0;
+		case BYTE, SHORT, INT, LONG -> integers[slot.index] = integer(type, value, slot.type);
+		case FLOAT, DOUBLE -> reals[slot.index] = real(type, value, slot.type);
+		case OBJECT -> objects[slot.index] = convert(type, value, slot.type);
+		}
+	}
+
+	private int[] slotTable(Schema schema) {
+		int[] table = slotTables.get(schema);
+		if(table == null) {
+			String[] hashKeyTable = view.hashKeyTable == null ? new String[0] : view.hashKeyTable;
+			if(hashKeyIndices == null) {
+				hashKeyIndices = new HashMap<>(hashKeyTable.length*2);
+				for(int i=0;i<hashKeyTable.length;i++) {
+					hashKeyIndices.put(hashKeyTable[i], i);
+				}
+			}
+			table = new int[hashKeyTable.length];
+			Arrays.fill(table, -1);
+			for(int i=0;i<schema.slots.length;i++) {
+				Integer index = hashKeyIndices.get(schema.slots[i].key);
+				if(index != null) {
+					table[index] = i;
+				}
+			}
+			slotTables.put(schema, table);
+		}
+		return table;
+	}
+
+	private boolean bool(Type type, int value, java.lang.reflect.Type target) {
+		expect(type, Type.Bool, target);
+		return switch(value) {
+			case 1 -> true;
+			case 0 -> false;
+			default -> throw new UnsupportedOperationException("Unknown value for Bool: "+value);
+		};
+	}
+
+	private long integer(Type type, int value, java.lang.reflect.Type target) {
+		return switch(type) {
+		case Int -> value;
+		case UInt -> value & 0xFFFFFFFFL;
+		case Int64, UInt64 -> view.getLong(value);
+		default -> throw new UnsupportedOperationException("Cannot bind BYML "+type+" to "+target);
+		};
+	}
+
+	private double real(Type type, int value, java.lang.reflect.Type target) {
+		return switch(type) {
+		case Float -> Float.intBitsToFloat(value);
+		case Double -> view.getDouble(value);
+		default -> integer(type, value, target);
+		};
+	}
+
+	private static void expect(Type type, Type expected, java.lang.reflect.Type target) {
+		if(type != expected)
+			throw new UnsupportedOperationException("Cannot bind BYML "+type+" to "+target);
+	}
+
+	private static Class<?> rawClass(java.lang.reflect.Type type) {
+		if(type instanceof Class<?> c)
+			return c;
+		if(type instanceof ParameterizedType p)
+			return (Class<?>) p.getRawType();
+		return Object.class;
+	}
+
+	private static java.lang.reflect.Type typeArgument(java.lang.reflect.Type type, int index) {
+		if(type instanceof ParameterizedType p)
+			return p.getActualTypeArguments()[index];
+		return Object.class;
+	}
+
+
+	private static final Class<?>[] STORAGE_TYPES = { long[].class, double[].class, Object[].class };
+
+	private static class Schema {
+
+		private final Class<?> type;
+		private final Slot[] slots;
+		// records are created through their canonical constructor, classes through the no-arg constructor and setters.
+		// recordConstructor takes (long[], double[], Object[]) and reads every component from its slot index
+		private MethodHandle recordConstructor, constructor;
+		private int integerCount, realCount, objectCount;
+
+		private Schema(Class<?> type) {
+			this.type = type;
+			try {
+				if(type.isRecord()) {
+					RecordComponent[] components = type.getRecordComponents();
+					Class<?>[] parameterTypes = new Class<?>[components.length];
+					for(int i=0;i<components.length;i++) {
+						parameterTypes[i] = components[i].getType();
+					}
+					Constructor<?> canonical = type.getDeclaredConstructor(parameterTypes);
+					canonical.setAccessible(true);
+					MethodHandle handle = MethodHandles.lookup().unreflectConstructor(canonical);
+					slots = new Slot[components.length];
+					int[] storage = new int[components.length];
+					for(int i=0;i<components.length;i++) {
+						Kind kind = Kind.of(parameterTypes[i]);
+						storage[i] = kind == Kind.OBJECT ? 2 : kind == Kind.FLOAT || kind == Kind.DOUBLE ? 1 : 0;
+						int index = storage[i] == 0 ? integerCount++ : storage[i] == 1 ? realCount++ : objectCount++;
+						slots[i] = new Slot(keyName(components[i].getAnnotation(Key.class), components[i].getName()), components[i].getGenericType(), null, index);
+						// argument i = (T) array[index], explicit casts narrow long and double to the component type
+						Class<?> arrayType = STORAGE_TYPES[storage[i]];
+						MethodHandle element = MethodHandles.insertArguments(MethodHandles.arrayElementGetter(arrayType), 1, index);
+						handle = MethodHandles.filterArguments(handle, i, MethodHandles.explicitCastArguments(element, MethodType.methodType(parameterTypes[i], arrayType)));
+					}
+					recordConstructor = MethodHandles.permuteArguments(handle, MethodType.methodType(type, STORAGE_TYPES), storage)
+							.asType(MethodType.methodType(Object.class, STORAGE_TYPES));
+				} else {
+					ArrayList<Slot> fieldSlots = new ArrayList<>();
+					for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+						for(Field field : c.getDeclaredFields()) {
+							if((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0)
+								continue;
+							field.setAccessible(true);
+							fieldSlots.add(new Slot(keyName(field.getAnnotation(Key.class), field.getName()), field.getGenericType(), MethodHandles.lookup().unreflectSetter(field), -1));
+						}
+					}
+					slots = fieldSlots.toArray(Slot[]::new);
+					Constructor<?> noArgs = type.getDeclaredConstructor();
+					noArgs.setAccessible(true);
+					constructor = MethodHandles.lookup().unreflectConstructor(noArgs).asType(MethodType.methodType(Object.class));
+				}
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				throw new UnsupportedOperationException("Cannot bind BYML to "+type.getName(), e);
+			}
+		}
+
+		private static String keyName(Key key, String name) {
+			return key != null ? key.value() : name;
+		}
+	}
+
+	private static class Slot {
+
+		private final String key;
+		private final java.lang.reflect.Type type;
+		private final Class<?> raw;
+		private final Kind kind;
+		private final MethodHandle setter;
+		private final int index; // in the storage array of a record component, -1 for fields
+
+		private Slot(String key, java.lang.reflect.Type type, MethodHandle setter, int index) {
+			this.key = key;
+			this.index = index;
+			this.type = type;
+			raw = rawClass(type);
+			kind = Kind.of(raw);
+			if(setter != null) {
+				Class<?> valueType = kind == Kind.OBJECT ? Object.class : raw;
+				setter = setter.asType(MethodType.methodType(void.class, Object.class, valueType));
+			}
+			this.setter = setter;
+		}
+	}
+
+	private enum Kind {
+		BOOLEAN, BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, OBJECT;
+
+		private static Kind of(Class<?> type) {
+			if(type == boolean.class) return BOOLEAN;
+			if(type == byte.class) return BYTE;
+			if(type == short.class) return SHORT;
+			if(type == int.class) return INT;
+			if(type == long.class) return LONG;
+			if(type == float.class) return FLOAT;
+			if(type == double.class) return DOUBLE;
+			return OBJECT;
+		}
+	}
+
+}
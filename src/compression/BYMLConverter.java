@@ -0,0 +1,343 @@
+package compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import compression.BYMLDecompress.Node.Type;
+import util.NintendoUtil;
+
+// converts BYML to JSON/YAML by walking the binary structure, without building the node tree first.
+// memory usage only depends on the string tables and the nesting depth, not on the amount of nodes.
+// instances reuse their output buffer and are not thread-safe.
+public class BYMLConverter {
+
+	public enum Format {
+		JSON(".json"),
+		YAML(".yml");
+
+		public final String extension;
+
+		private Format(String extension) {
+			this.extension = extension;
+		}
+	}
+
+	private static final int INDENT = 2;
+
+	private final Format format;
+	private final char[] buffer;
+	private int bufferLength;
+
+	private Writer out;
+	private BYMLView view;
+	private boolean documentStart;
+
+	public BYMLConverter(Format format) {
+		this(format, 8192);
+	}
+	public BYMLConverter(Format format, int bufferSize) {
+		this.format = format;
+		buffer = new char[Math.max(bufferSize, 64)];
+	}
+
+	public void convert(byte[] dataArray, OutputStream out) throws IOException {
+		convert(new BYMLView(dataArray), new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+	public void convert(byte[] dataArray, Writer out) throws IOException {
+		convert(new BYMLView(dataArray), out);
+	}
+	public void convert(BYMLView view, Writer out) throws IOException {
+		this.view = view;
+		this.out = out;
+		bufferLength = 0;
+		documentStart = format == Format.YAML;
+		try {
+			if(view.rootNodeOffset == 0) {
+				write("null");
+			} else {
+				writeNode(view.getRootType(), view.rootNodeOffset, 0);
+			}
+			write('\n');
+			flushBuffer();
+			out.flush();
+		} finally {
+			this.view = null;
+			this.out = null;
+		}
+	}
+
+	// converts all .byml/.bgyml files in the input directory (recursively) in parallel,
+	// the directory structure is mirrored in the output directory
+	public static void convertDirectory(Path input, Path output, Format format) throws IOException {
+		List<Path> files;
+		try(Stream<Path> stream = Files.walk(input)) {
+			files = stream.filter(Files::isRegularFile).filter(BYMLConverter::isBYMLFile).collect(Collectors.toList());
+		}
+
+		ThreadLocal<BYMLConverter> converters = ThreadLocal.withInitial(() -> new BYMLConverter(format));
+		try {
+			files.parallelStream().forEach(file -> {
+				Path target = output.resolve(input.relativize(file).toString()+format.extension);
+				try {
+					Files.createDirectories(target.getParent());
+					BYMLView view = new BYMLView(NintendoUtil.mapFile(file)); // mapped, so files aren't copied to the heap
+					try(Writer writer = new OutputStreamWriter(Files.newOutputStream(target), StandardCharsets.UTF_8)) {
+						converters.get().convert(view, writer);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException("Failed to convert "+file, e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static boolean isBYMLFile(Path file) {
+		String name = file.getFileName().toString();
+		return name.endsWith(".byml") || name.endsWith(".bgyml");
+	}
+
+
+	private void writeNode(Type type, int value, int depth) throws IOException {
+		switch(type) {
+		case Array -> writeArray(value, depth);
+		case Hash -> writeHash(value, depth);
+		case String -> writeString(view.getString(value));
+		case Bool -> write(switch(value) {
+			case 1 -> "true";
+			case 0 -> "false";
+			default -> throw new UnsupportedOperationException("Unknown value for Bool: "+value);
+		});
+		case Int -> writeLong(value);
+		case UInt -> writeLong(value & 0xFFFFFFFFL);
+		case Float -> writeFloat(Float.intBitsToFloat(value));
+		case Int64 -> writeLong(view.getLong(value));
+		case UInt64 -> write(Long.toUnsignedString(view.getLong(value)));
+		case Double -> writeDouble(view.getDouble(value));
+		case Binary -> writeBinary(view.getBinary(value));
+		case NULL -> write("null");
+		default -> throw new UnsupportedOperationException("Unimplemented case: " + type);
+		}
+	}
+
+	private void writeArray(int offset, int depth) throws IOException {
+		view.expectType(offset, Type.Array);
+		int size = view.getSize(offset);
+		if(size == 0) {
+			write("[]");
+			return;
+		}
+
+		boolean yaml = format == Format.YAML;
+		if(!yaml) write('[');
+		for(int i=0;i<size;i++) {
+			Type type = view.getArrayType(offset, i);
+			int value = view.getArrayValue(offset, i);
+			if(yaml) {
+				newLine(depth);
+				write('-');
+				writeYAMLValue(type, value, depth+1);
+			} else {
+				if(i != 0) write(',');
+				newLine(depth+1);
+				writeNode(type, value, depth+1);
+			}
+		}
+		if(!yaml) {
+			newLine(depth);
+			write(']');
+		}
+	}
+
+	private void writeHash(int offset, int depth) throws IOException {
+		view.expectType(offset, Type.Hash);
+		int size = view.getSize(offset);
+		if(size == 0) {
+			write("{}");
+			return;
+		}
+
+		boolean yaml = format == Format.YAML;
+		if(!yaml) write('{');
+		for(int i=0;i<size;i++) {
+			Type type = view.getHashType(offset, i);
+			int value = view.getHashValue(offset, i);
+			if(yaml) {
+				newLine(depth);
+				writeString(view.getHashKeyName(offset, i));
+				write(':');
+				writeYAMLValue(type, value, depth+1);
+			} else {
+				if(i != 0) write(',');
+				newLine(depth+1);
+				writeString(view.getHashKeyName(offset, i));
+				write(": ");
+				writeNode(type, value, depth+1);
+			}
+		}
+		if(!yaml) {
+			newLine(depth);
+			write('}');
+		}
+	}
+
+	// non-empty containers start on the next line in YAML block style
+	private void writeYAMLValue(Type type, int value, int depth) throws IOException {
+		if((type == Type.Array || type == Type.Hash) && view.getSize(value) != 0) {
+			writeNode(type, value, depth);
+		} else {
+			write(' ');
+			writeNode(type, value, depth);
+		}
+	}
+
+	private void newLine(int depth) throws IOException {
+		if(documentStart) {
+			documentStart = false;
+		} else {
+			write('\n');
+		}
+		for(int i=0;i<depth*INDENT;i++) {
+			write(' ');
+		}
+	}
+
+	// double-quoted strings are valid in both JSON and YAML
+	private void writeString(String s) throws IOException {
+		write('"');
+		for(int i=0;i<s.length();i++) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '"' -> write("\\\"");
+			case '\\' -> write("\\\\");
+			case '\n' -> write("\\n");
+			case '\r' -> write("\\r");
+			case '\t' -> write("\\t");
+			default -> {
+				if(c < 0x20) {
+					write("\\u00");
+					write(Character.forDigit(c >> 4, 16));
+					write(Character.forDigit(c & 0xF, 16));
+				} else {
+					write(c);
+				}
+			}
+			}
+		}
+		write('"');
+	}
+
+	private void writeFloat(float f) throws IOException {
+		if(Float.isFinite(f)) {
+			writeDecimal(Float.toString(f));
+		} else {
+			writeNonFinite(f);
+		}
+	}
+	private void writeDouble(double d) throws IOException {
+		if(Double.isFinite(d)) {
+			writeDecimal(Double.toString(d));
+		} else {
+			writeNonFinite(d);
+		}
+	}
+	// YAML 1.1 only resolves 1.0E10 as a float with a signed exponent, JSON accepts both
+	private void writeDecimal(String decimal) throws IOException {
+		int exponent = decimal.indexOf('E');
+		if(exponent >= 0 && decimal.charAt(exponent+1) != '-') {
+			decimal = decimal.substring(0, exponent+1)+"+"+decimal.substring(exponent+1);
+		}
+		write(decimal);
+	}
+	private void writeNonFinite(double d) throws IOException {
+		if(Double.isNaN(d)) {
+			write(format == Format.YAML ? ".nan" : "\"NaN\"");
+		} else if(format == Format.YAML) {
+			write(d > 0 ? ".inf" : "-.inf");
+		} else {
+			write(d > 0 ? "\"Infinity\"" : "\"-Infinity\"");
+		}
+	}
+
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	// base64 encoded 3 bytes at a time straight into the buffer, tagged as binary in YAML
+	private void writeBinary(ByteBuffer binary) throws IOException {
+		if(format == Format.YAML) {
+			write("!!binary ");
+		}
+		write('"');
+		for(int i=binary.position(); i<binary.limit(); i+=3) {
+			if(bufferLength + 4 > buffer.length) {
+				flushBuffer();
+			}
+			int count = Math.min(3, binary.limit() - i);
+			int bits = (binary.get(i) & 0xFF) << 16 | (count > 1 ? (binary.get(i+1) & 0xFF) << 8 : 0) | (count > 2 ? binary.get(i+2) & 0xFF : 0);
+			buffer[bufferLength++] = BASE64[bits >>> 18];
+			buffer[bufferLength++] = BASE64[(bits >>> 12) & 0x3F];
+			buffer[bufferLength++] = count > 1 ? BASE64[(bits >>> 6) & 0x3F] : '=';
+			buffer[bufferLength++] = count > 2 ? BASE64[bits & 0x3F] : '=';
+		}
+		write('"');
+	}
+
+	private void writeLong(long value) throws IOException {
+		if(value == Long.MIN_VALUE) {
+			write(Long.toString(value));
+			return;
+		}
+		if(bufferLength + 20 > buffer.length) {
+			flushBuffer();
+		}
+		if(value < 0) {
+			buffer[bufferLength++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for(long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		for(int i=bufferLength+digits-1; i>=bufferLength; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		bufferLength += digits;
+	}
+
+	private void write(String s) throws IOException {
+		int length = s.length();
+		if(bufferLength + length > buffer.length) {
+			flushBuffer();
+			if(length > buffer.length) {
+				out.write(s);
+				return;
+			}
+		}
+		s.getChars(0, length, buffer, bufferLength);
+		bufferLength += length;
+	}
+
+	private void write(char c) throws IOException {
+		if(bufferLength == buffer.length) {
+			flushBuffer();
+		}
+		buffer[bufferLength++] = c;
+	}
+
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, bufferLength);
+		bufferLength = 0;
+	}
+
+}
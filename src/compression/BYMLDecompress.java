@@ -1,10 +1,11 @@
 package compression;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 
 import util.ByteDataStream;
-import util.ByteDataStream.StringType;
+import util.ValidationLevel;
 
 public class BYMLDecompress {
 	
@@ -14,29 +15,22 @@ public class BYMLDecompress {
 	private HashMap<Integer, Object> cache; // maps offset => object
 
 	public BYMLDecompress(byte[] dataArray) {
-		ByteDataStream data = new ByteDataStream(dataArray);
+		this(new BYMLView(dataArray));
+	}
+	public BYMLDecompress(ByteBuffer dataBuffer) {
+		this(new BYMLView(dataBuffer));
+	}
+	public BYMLDecompress(ByteBuffer dataBuffer, ValidationLevel validation) {
+		this(new BYMLView(dataBuffer, validation));
+	}
+	private BYMLDecompress(BYMLView view) {
+		ByteDataStream data = view.data;
 		cache = new HashMap<>();
 		
-		data.assertMagic("YB"); //BY in little endian
-		data.expectShort(3, "version");
-		
-		int hashKeyTableOffset = data.getInt();
-		int stringTableOffset = data.getInt();
-		int rootNodeOffset = data.getInt();
-
-		data.align(4);
-		if(hashKeyTableOffset != 0) {
-			data.assertPosition(hashKeyTableOffset);
-			hashKeyTable = (String[]) new Node(data, null, null).content;
-		}
-		data.align(4);
-		if(stringTableOffset != 0) {
-			data.assertPosition(stringTableOffset);
-			stringTable = (String[]) new Node(data, hashKeyTable, null).content;
-		}
-		data.align(4);
-		if(rootNodeOffset != 0) {
-			data.assertPosition(rootNodeOffset);
+		hashKeyTable = view.hashKeyTable;
+		stringTable = view.stringTable;
+		if(view.rootNodeOffset != 0) {
+			data.assertPosition(view.rootNodeOffset);
 			rootNode = new Node(data, hashKeyTable, stringTable);
 		}
 		
@@ -52,7 +46,7 @@ public class BYMLDecompress {
 			// main nodes only support StringTable (hash key/string table) and Array/Hash (root node)
 			type = Type.getType(data.peekByte());
 			content = switch(type) {
-			case StringTable -> getStringTable(data);
+			case StringTable -> BYMLView.readStringTable(data);
 			case Array -> getArray(data, hashKeyTable, stringTable);
 			case Hash -> getHash(data, hashKeyTable, stringTable);
 			default -> throw new UnsupportedOperationException("Unimplemented case: " + type);
@@ -63,24 +57,6 @@ public class BYMLDecompress {
 			return stringTable[index];
 		}
 		
-		private String[] getStringTable(ByteDataStream data) {
-			int startOffset = data.position();
-			data.expectByte(Type.StringTable.id, "ID");
-			
-			int entries = data.getU24();
-			int[] offsets = data.getInts(entries+1);
-			
-			data.assertPosition(startOffset+offsets[0]);
-			
-			String[] strings = new String[entries];
-			for(int i=0;i<strings.length;i++) {
-				strings[i] = data.getString(StringType.NULL_TERMINATED);
-				data.assertPosition(startOffset+offsets[i+1]);
-			}
-			
-			return strings;
-		}
-		
 		private Object[] getArray(ByteDataStream data, String[] hashKeyTable, String[] stringTable) {
 			data.expectByte(Type.Array.id, "ID");
 			
@@ -136,7 +112,11 @@ public class BYMLDecompress {
 				cache.put(data, hash);
 				yield hash;
 			}
-			case Binary -> throw new UnsupportedOperationException("Unimplemented case: " + type);
+			case Binary -> {
+				ByteBuffer binary = file.slice(data+4, file.getInt(data));
+				skipValue(file, data, (4+binary.capacity()+3) & ~3);
+				yield binary;
+			}
 			case Bool -> {
 				yield switch(data) {
 					case 1 -> true;
@@ -144,7 +124,10 @@ public class BYMLDecompress {
 					default -> throw new UnsupportedOperationException("Unknown value for Bool: "+data);
 				};
 			}
-			case Double -> throw new UnsupportedOperationException("Unimplemented case: " + type);
+			case Double -> {
+				skipValue(file, data, 8);
+				yield file.getDouble(data);
+			}
 			case Float -> Float.intBitsToFloat(data);
 			case Hash -> {
 				if(cache.containsKey(data)) {
@@ -157,21 +140,29 @@ public class BYMLDecompress {
 			}
 			case Int -> data;
 			case Int64 -> {
-				file.assertPosition(data);
-				yield file.getLong();
+				skipValue(file, data, 8);
+				yield file.getLong(data);
 			}
 			case NULL -> null;
 			case String -> getString(data, stringTable);
 			case StringTable -> throw new UnsupportedOperationException("Unimplemented case: " + type);
 			case UInt -> data;
 			case UInt64 -> {
-				file.assertPosition(data);
-				yield file.getLong();
+				skipValue(file, data, 8);
+				yield file.getLong(data);
 			}
 			};
 			return o;
 		}
 		
+		// values are read by absolute offset, but if they are stored in sequence
+		// the stream still has to move past them for the following nodes
+		private void skipValue(ByteDataStream file, int offset, int size) {
+			if(file.position() == offset) {
+				file.seek(Math.min(offset+size, file.size()));
+			}
+		}
+		
 		public enum Type {
 			String(0xA0),
 			Binary(0xA1),
@@ -194,13 +185,18 @@ public class BYMLDecompress {
 			private Type(int id) {
 				this((byte)id);
 			}
+			
+			private static final Type[] BY_ID = new Type[256];
+			static {
+				for(Type type : values()) {
+					BY_ID[type.id & 0xFF] = type;
+				}
+			}
 			public static Type getType(byte id) {
-		    	for(Type type : Type.values()) {
-		    		if(type.id == id) {
-		    			return type;
-		    		}
-		    	}
-				throw new UnsupportedOperationException("BYML-Node-Type of id "+id+" not found");
+				Type type = BY_ID[id & 0xFF];
+				if(type == null)
+					throw new UnsupportedOperationException("BYML-Node-Type of id "+id+" not found");
+				return type;
 			}
 		}
 		
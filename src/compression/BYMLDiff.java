@@ -0,0 +1,316 @@
+package compression;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import compression.BYMLDecompress.Node.Type;
+
+// structural diff and three-way merge of BYML files, working directly on the buffers (see BYMLView).
+// every subtree gets a Merkle-style hash, so identical branches are skipped without visiting them.
+// paths are written as /key/index/key, starting at the root node. keys are escaped like in JSON pointers:
+// '~' as "~0" and '/' as "~1", so every path is unambiguous.
+public class BYMLDiff {
+
+	public enum Kind {
+		ADDED,
+		REMOVED,
+		MODIFIED
+	}
+
+	public record Change(String path, Kind kind) {}
+
+	public record MergeResult(Object root, List<Change> conflicts) {}
+
+	private static final long MISSING = 0x6A09E667F3BCC909L;
+	private static final Object REMOVED = new Object();
+
+	public static List<Change> diff(byte[] a, byte[] b) {
+		return diff(new SubtreeHashes(new BYMLView(a)), new SubtreeHashes(new BYMLView(b)));
+	}
+	public static List<Change> diff(SubtreeHashes a, SubtreeHashes b) {
+		List<Change> changes = new ArrayList<>();
+		diff("", a, a.view.getRootType(), a.view.rootNodeOffset, b, b.view.getRootType(), b.view.rootNodeOffset, changes);
+		return changes;
+	}
+
+	private static void diff(String path, SubtreeHashes a, Type typeA, int valueA, SubtreeHashes b, Type typeB, int valueB, List<Change> changes) {
+		if(a.hash(typeA, valueA) == b.hash(typeB, valueB)) {
+			return;
+		}
+		if(typeA == Type.Hash && typeB == Type.Hash) {
+			int sizeA = a.view.getSize(valueA), sizeB = b.view.getSize(valueB);
+			int i = 0, j = 0;
+			// both hashes are sorted by key
+			while(i < sizeA || j < sizeB) {
+				int compare = i == sizeA ? 1 : j == sizeB ? -1 : a.view.getHashKeyName(valueA, i).compareTo(b.view.getHashKeyName(valueB, j));
+				if(compare < 0) {
+					changes.add(new Change(path+"/"+escape(a.view.getHashKeyName(valueA, i)), Kind.REMOVED));
+					i++;
+				} else if(compare > 0) {
+					changes.add(new Change(path+"/"+escape(b.view.getHashKeyName(valueB, j)), Kind.ADDED));
+					j++;
+				} else {
+					diff(path+"/"+escape(a.view.getHashKeyName(valueA, i)),
+							a, a.view.getHashType(valueA, i), a.view.getHashValue(valueA, i),
+							b, b.view.getHashType(valueB, j), b.view.getHashValue(valueB, j), changes);
+					i++;
+					j++;
+				}
+			}
+		} else if(typeA == Type.Array && typeB == Type.Array) {
+			int sizeA = a.view.getSize(valueA), sizeB = b.view.getSize(valueB);
+			for(int i=0;i<Math.min(sizeA, sizeB);i++) {
+				diff(path+"/"+i, a, a.view.getArrayType(valueA, i), a.view.getArrayValue(valueA, i),
+						b, b.view.getArrayType(valueB, i), b.view.getArrayValue(valueB, i), changes);
+			}
+			for(int i=sizeB;i<sizeA;i++) {
+				changes.add(new Change(path+"/"+i, Kind.REMOVED));
+			}
+			for(int i=sizeA;i<sizeB;i++) {
+				changes.add(new Change(path+"/"+i, Kind.ADDED));
+			}
+		} else {
+			changes.add(new Change(path, Kind.MODIFIED));
+		}
+	}
+
+	// the result is boxed the same way as BYMLDecompress.Node.content.
+	// Hash nodes are merged per key, everything else has to be changed on one side only.
+	// conflicting nodes are taken from ours and reported.
+	public static MergeResult merge(byte[] base, byte[] ours, byte[] theirs) {
+		return merge(new SubtreeHashes(new BYMLView(base)), new SubtreeHashes(new BYMLView(ours)), new SubtreeHashes(new BYMLView(theirs)));
+	}
+	public static MergeResult merge(SubtreeHashes base, SubtreeHashes ours, SubtreeHashes theirs) {
+		List<Change> conflicts = new ArrayList<>();
+		Object merged = merge("", new NodeRef(base, base.view.getRootType(), base.view.rootNodeOffset),
+				new NodeRef(ours, ours.view.getRootType(), ours.view.rootNodeOffset),
+				new NodeRef(theirs, theirs.view.getRootType(), theirs.view.rootNodeOffset), conflicts);
+		return new MergeResult(merged == REMOVED ? null : merged, conflicts);
+	}
+
+	private record NodeRef(SubtreeHashes hashes, Type type, int value) {
+		private long hash() {
+			return hashes.hash(type, value);
+		}
+		private Object box() {
+			return hashes.view.getObject(type, value);
+		}
+		private HashMap<String, NodeRef> entries() {
+			int size = hashes.view.getSize(value);
+			HashMap<String, NodeRef> entries = new HashMap<>(size*2);
+			for(int i=0;i<size;i++) {
+				entries.put(hashes.view.getHashKeyName(value, i), new NodeRef(hashes, hashes.view.getHashType(value, i), hashes.view.getHashValue(value, i)));
+			}
+			return entries;
+		}
+	}
+
+	public static String escape(String key) {
+		return key.indexOf('~') < 0 && key.indexOf('/') < 0 ? key : key.replace("~", "~0").replace("/", "~1");
+	}
+	public static String unescape(String segment) {
+		return segment.indexOf('~') < 0 ? segment : segment.replace("~1", "/").replace("~0", "~");
+	}
+
+	private static long hash(NodeRef node) {
+		return node == null ? MISSING : node.hash();
+	}
+
+	private static Object merge(String path, NodeRef base, NodeRef ours, NodeRef theirs, List<Change> conflicts) {
+		long hashBase = hash(base), hashOurs = hash(ours), hashTheirs = hash(theirs);
+		NodeRef result;
+		if(hashOurs == hashTheirs || hashTheirs == hashBase) {
+			result = ours;
+		} else if(hashOurs == hashBase) {
+			result = theirs;
+		} else if(base != null && ours != null && theirs != null &&
+				base.type == Type.Hash && ours.type == Type.Hash && theirs.type == Type.Hash) {
+			return mergeHash(path, base, ours, theirs, conflicts);
+		} else {
+			// a side that deleted what the other one changed is a delete/modify conflict
+			conflicts.add(new Change(path, base == null ? Kind.ADDED : ours == null || theirs == null ? Kind.REMOVED : Kind.MODIFIED));
+			result = ours;
+		}
+		return result == null ? REMOVED : result.box();
+	}
+
+	private static HashMap<String, Object> mergeHash(String path, NodeRef base, NodeRef ours, NodeRef theirs, List<Change> conflicts) {
+		HashMap<String, NodeRef> baseEntries = base.entries(), ourEntries = ours.entries(), theirEntries = theirs.entries();
+		TreeSet<String> keys = new TreeSet<>(baseEntries.keySet());
+		keys.addAll(ourEntries.keySet());
+		keys.addAll(theirEntries.keySet());
+
+		HashMap<String, Object> map = new HashMap<>(keys.size()*2);
+		for(String key : keys) {
+			Object merged = merge(path+"/"+escape(key), baseEntries.get(key), ourEntries.get(key), theirEntries.get(key), conflicts);
+			if(merged != REMOVED) {
+				map.put(key, merged);
+			}
+		}
+		return map;
+	}
+
+
+	// hashes of all subtrees of one file, computed on construction.
+	// only containers with large subtrees are cached by offset, smaller ones are cheap to hash again when diff visits them.
+	// containers with many entries hash their children in parallel ranges, small ones are hashed in the calling task.
+	public static class SubtreeHashes {
+
+		private static final int FORK_THRESHOLD = 64; // entries per task
+		private static final int CACHE_THRESHOLD = 256; // nodes in the subtree
+
+		public final BYMLView view;
+		private final long[] stringHashes;
+		private final ConcurrentHashMap<Integer, Long> containerHashes = new ConcurrentHashMap<>();
+
+		public SubtreeHashes(BYMLView view) {
+			this.view = view;
+			stringHashes = hashStrings(view.stringTable);
+			Type type = view.rootNodeOffset != 0 ? view.getRootType() : null;
+			if(type == Type.Array || type == Type.Hash) {
+				ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> containerHash(type, view.rootNodeOffset, new int[1])));
+			}
+		}
+
+		public long hash(Type type, int value) {
+			if(type == Type.Array || type == Type.Hash) {
+				return containerHash(type, value, new int[1]);
+			}
+			return leafHash(type, value);
+		}
+
+		private long leafHash(Type type, int value) {
+			long bits = switch(type) {
+			case String -> stringHashes[value];
+			case Int64, UInt64 -> view.getLong(value);
+			case Double -> Double.doubleToLongBits(view.getDouble(value));
+			case Binary -> hashBytes(view.getBinary(value));
+			case NULL -> 0;
+			default -> value;
+			};
+			return combine(type.id, bits);
+		}
+
+		// nodes[0] is increased by the number of nodes in the subtree, cached subtrees count as CACHE_THRESHOLD
+		private long containerHash(Type type, int offset, int[] nodes) {
+			Long cached = containerHashes.get(offset);
+			if(cached != null) {
+				nodes[0] += CACHE_THRESHOLD;
+				return cached;
+			}
+			view.expectType(offset, type);
+			int size = view.getSize(offset);
+			long[] childHashes = new long[size];
+			int subtree = 1 + (size > FORK_THRESHOLD
+					? new ChildrenTask(type, offset, childHashes, 0, size).invoke()
+					: hashChildren(type, offset, childHashes, 0, size));
+
+			long result = combine(type.id, size);
+			for(int i=0;i<size;i++) {
+				if(type == Type.Hash) {
+					result = combine(result, hashString(view.getHashKeyName(offset, i)));
+				}
+				result = combine(result, childHashes[i]);
+			}
+			if(subtree >= CACHE_THRESHOLD) {
+				containerHashes.put(offset, result);
+			}
+			nodes[0] += subtree;
+			return result;
+		}
+
+		// returns the number of nodes below the children
+		private int hashChildren(Type type, int offset, long[] childHashes, int from, int to) {
+			int[] nodes = new int[1];
+			for(int i=from;i<to;i++) {
+				Type childType = type == Type.Hash ? view.getHashType(offset, i) : view.getArrayType(offset, i);
+				int childValue = type == Type.Hash ? view.getHashValue(offset, i) : view.getArrayValue(offset, i);
+				if(childType == Type.Array || childType == Type.Hash) {
+					childHashes[i] = containerHash(childType, childValue, nodes);
+				} else {
+					childHashes[i] = leafHash(childType, childValue);
+					nodes[0]++;
+				}
+			}
+			return nodes[0];
+		}
+
+		private class ChildrenTask extends RecursiveTask<Integer> {
+
+			private static final long serialVersionUID = 1L;
+
+			private final Type type;
+			private final int offset;
+			private final long[] childHashes;
+			private final int from, to;
+
+			private ChildrenTask(Type type, int offset, long[] childHashes, int from, int to) {
+				this.type = type;
+				this.offset = offset;
+				this.childHashes = childHashes;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected Integer compute() {
+				if(to - from <= FORK_THRESHOLD) {
+					return hashChildren(type, offset, childHashes, from, to);
+				}
+				int middle = (from + to) >>> 1;
+				ChildrenTask second = new ChildrenTask(type, offset, childHashes, middle, to);
+				second.fork();
+				int nodes = new ChildrenTask(type, offset, childHashes, from, middle).compute();
+				return nodes + second.join();
+			}
+		}
+	}
+
+	private static long[] hashStrings(String[] strings) {
+		if(strings == null) {
+			return new long[0];
+		}
+		long[] hashes = new long[strings.length];
+		for(int i=0;i<strings.length;i++) {
+			hashes[i] = hashString(strings[i]);
+		}
+		return hashes;
+	}
+
+	private static long hashString(String s) {
+		long hash = s.length();
+		for(int i=0;i<s.length();i++) {
+			hash = hash * 0x100000001B3L + s.charAt(i);
+		}
+		return mix(hash);
+	}
+
+	private static long hashBytes(ByteBuffer bytes) {
+		long hash = bytes.remaining();
+		for(int i=bytes.position();i<bytes.limit();i++) {
+			hash = hash * 0x100000001B3L + bytes.get(i);
+		}
+		return mix(hash);
+	}
+
+	private static long combine(long hash, long value) {
+		return mix(hash * 0x9E3779B97F4A7C15L + value);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
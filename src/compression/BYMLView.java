@@ -0,0 +1,169 @@
+package compression;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+
+import compression.BYMLDecompress.Node.Type;
+import util.ByteDataStream;
+import util.ByteDataStream.StringType;
+import util.StringPool;
+import util.ValidationLevel;
+
+// random-access view on a BYML file: only the header and string tables are decoded,
+// all other nodes are read directly from the buffer by their offset
+public class BYMLView {
+
+	public String[] hashKeyTable, stringTable;
+	public int rootNodeOffset;
+	public int version;
+
+	final ByteDataStream data;
+
+	public BYMLView(byte[] dataArray) {
+		this(ByteBuffer.wrap(dataArray));
+	}
+	// e.g. a mapped file, nodes are read from it on access
+	public BYMLView(ByteBuffer dataBuffer) {
+		this(dataBuffer, ValidationLevel.STRICT);
+	}
+	public BYMLView(ByteBuffer dataBuffer, ValidationLevel validation) {
+		data = new ByteDataStream(dataBuffer);
+		data.validation(validation);
+
+		String magic = data.getString(2);
+		switch(magic) {
+		case "YB" -> data.order(ByteOrder.LITTLE_ENDIAN);
+		case "BY" -> data.order(ByteOrder.BIG_ENDIAN);
+		default -> throw new UnsupportedOperationException("BYML magic not correct: "+magic);
+		}
+		version = data.getShort() & 0xFFFF;
+		if(version < 1 || version > 7) {
+			throw new UnsupportedOperationException("Unsupported BYML version: "+version);
+		}
+
+		int hashKeyTableOffset = data.getInt();
+		int stringTableOffset = data.getInt();
+		rootNodeOffset = data.getInt();
+
+		data.align(4);
+		if(hashKeyTableOffset != 0) {
+			data.assertPosition(hashKeyTableOffset);
+			data.stringPool(StringPool.SHARED); // the same keys are used in most files
+			hashKeyTable = readStringTable(data);
+			data.stringPool(null);
+		}
+		data.align(4);
+		if(stringTableOffset != 0) {
+			data.assertPosition(stringTableOffset);
+			stringTable = readStringTable(data);
+		}
+		data.align(4);
+	}
+
+	static String[] readStringTable(ByteDataStream data) {
+		int startOffset = data.position();
+		data.expectByte(Type.StringTable.id, "ID");
+
+		int entries = data.getU24();
+		int[] offsets = data.getInts(entries+1);
+
+		data.assertPosition(startOffset+offsets[0]);
+
+		String[] strings = new String[entries];
+		for(int i=0;i<strings.length;i++) {
+			strings[i] = data.getString(StringType.NULL_TERMINATED);
+			data.assertPosition(startOffset+offsets[i+1]);
+		}
+
+		return strings;
+	}
+
+	public Type getRootType() {
+		return rootNodeOffset == 0 ? Type.NULL : getType(rootNodeOffset);
+	}
+
+	// containers (Array, Hash)
+	public Type getType(int offset) {
+		return Type.getType(data.getByte(offset));
+	}
+	public void expectType(int offset, Type type) {
+		if(data.getByte(offset) != type.id) {
+			throw new UnsupportedOperationException("Expected "+type+" at offset "+offset+", but found "+getType(offset));
+		}
+	}
+	public int getSize(int offset) {
+		return data.getU24(offset+1);
+	}
+
+	public Type getArrayType(int offset, int index) {
+		return Type.getType(data.getByte(offset+4+index));
+	}
+	public int getArrayValue(int offset, int index) {
+		int valuesOffset = (offset+4+getSize(offset)+3) & ~3;
+		return data.getInt(valuesOffset+index*4);
+	}
+
+	// Hash entries are sorted by key, just like the hash key table
+	public int getHashKey(int offset, int index) {
+		return data.getU24(offset+4+index*8);
+	}
+	public String getHashKeyName(int offset, int index) {
+		return hashKeyTable[getHashKey(offset, index)];
+	}
+	public Type getHashType(int offset, int index) {
+		return Type.getType(data.getByte(offset+4+index*8+3));
+	}
+	public int getHashValue(int offset, int index) {
+		return data.getInt(offset+4+index*8+4);
+	}
+
+	// values
+	public String getString(int index) {
+		return stringTable[index];
+	}
+	public long getLong(int offset) {
+		return data.getLong(offset);
+	}
+	public double getDouble(int offset) {
+		return data.getDouble(offset);
+	}
+	public ByteBuffer getBinary(int offset) {
+		return data.slice(offset+4, data.getInt(offset));
+	}
+
+	// boxes the node (and all its children) the same way BYMLDecompress does
+	public Object getObject(Type type, int value) {
+		return switch(type) {
+		case Array -> {
+			Object[] array = new Object[getSize(value)];
+			for(int i=0;i<array.length;i++) {
+				array[i] = getObject(getArrayType(value, i), getArrayValue(value, i));
+			}
+			yield array;
+		}
+		case Hash -> {
+			int size = getSize(value);
+			HashMap<String, Object> map = new HashMap<>(size);
+			for(int i=0;i<size;i++) {
+				map.put(getHashKeyName(value, i), getObject(getHashType(value, i), getHashValue(value, i)));
+			}
+			yield map;
+		}
+		case String -> getString(value);
+		case Binary -> getBinary(value);
+		case Bool -> switch(value) {
+			case 1 -> true;
+			case 0 -> false;
+			default -> throw new UnsupportedOperationException("Unknown value for Bool: "+value);
+		};
+		case Int, UInt -> value;
+		case Float -> Float.intBitsToFloat(value);
+		case Int64, UInt64 -> getLong(value);
+		case Double -> getDouble(value);
+		case NULL -> null;
+		case StringTable -> throw new UnsupportedOperationException("Unimplemented case: " + type);
+		};
+	}
+
+}
@@ -0,0 +1,204 @@
+package compression;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import util.NintendoUtil;
+import util.ValidationLevel;
+
+// recognizes data by its magic bytes instead of the file extension and unwraps containers,
+// e.g. Yaz0 -> SARC -> entries -> BYML. sniffing only reads the first bytes of the buffer and
+// handles decode on first use. walking unwraps (decompresses, parses) every container it descends into,
+// pass a descend predicate to skip the ones that aren't needed; everything else is only decoded if the visitor asks
+public class FormatRegistry {
+
+	public static final FormatRegistry DEFAULT = new FormatRegistry(ValidationLevel.STRICT);
+
+	// containers return their contents by name, Yaz0 has a single unnamed entry.
+	// gets the result of the format's decoder, so the data isn't parsed twice
+	public interface Unwrapper {
+		Map<String, ByteBuffer> unwrap(Object decoded);
+	}
+
+	// unwrapper is null for formats that don't contain other files
+	public record Format(String name, byte[][] magics, Function<ByteBuffer, Object> decoder, Unwrapper unwrapper) {
+
+		public boolean matches(ByteBuffer data) {
+			for(byte[] magic : magics) {
+				if(startsWith(data, magic)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public boolean isContainer() {
+			return unwrapper != null;
+		}
+	}
+
+	public final Format yaz0, sarc, byml, kcl;
+	private final List<Format> formats = new CopyOnWriteArrayList<>(); // DEFAULT is shared, register() may race with sniff()
+
+	public FormatRegistry(ValidationLevel validation) {
+		yaz0 = register("Yaz0", new byte[][] { {'Y', 'a', 'z', '0'} },
+				data -> new YAZ0Decompress(data, validation),
+				decoded -> Map.of("", ByteBuffer.wrap(((YAZ0Decompress) decoded).decompressed())));
+		sarc = register("SARC", new byte[][] { {'S', 'A', 'R', 'C'} },
+				data -> new SARCDecompress(data, -1, validation),
+				decoded -> {
+					Map<String, ByteBuffer> entries = new LinkedHashMap<>();
+					((SARCDecompress) decoded).files.forEach((name, file) -> entries.put(name, ByteBuffer.wrap(file)));
+					return entries;
+				});
+		byml = register("BYML", new byte[][] { {'Y', 'B'}, {'B', 'Y'} },
+				data -> new BYMLDecompress(data, validation), null);
+		KCLDecompress.Options kclOptions = KCLDecompress.Options.DEFAULT.toBuilder().validation(validation).build();
+		kcl = register("KCL", new byte[][] { {2, 2, 0, 0} },
+				data -> new KCLDecompress(data, kclOptions), null);
+	}
+
+	// formats are sniffed in registration order
+	public Format register(String name, byte[][] magics, Function<ByteBuffer, Object> decoder, Unwrapper unwrapper) {
+		Format format = new Format(name, magics, decoder, unwrapper);
+		formats.add(format);
+		return format;
+	}
+
+	// null for unknown data, the position of the buffer isn't used
+	public Format sniff(ByteBuffer data) {
+		for(Format format : formats) {
+			if(format.matches(data)) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+	private static boolean startsWith(ByteBuffer data, byte[] magic) {
+		if(data.limit() < magic.length) {
+			return false;
+		}
+		for(int i=0;i<magic.length;i++) {
+			if(data.get(i) != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public Handle open(String path, ByteBuffer data) {
+		return new Handle(path, data.slice());
+	}
+	public Handle open(Path file) throws IOException {
+		return open(file.toString(), NintendoUtil.mapFile(file));
+	}
+
+	// visits the handle and then the contents of all containers, depth first
+	public void walk(Handle handle, Consumer<Handle> visitor) {
+		walk(handle, container -> true, visitor);
+	}
+	// only containers accepted by descend are unwrapped, after they have been visited
+	public void walk(Handle handle, Predicate<Handle> descend, Consumer<Handle> visitor) {
+		visitor.accept(handle);
+		if(handle.format != null && handle.format.isContainer() && descend.test(handle)) {
+			for(Handle child : handle.children()) {
+				walk(child, descend, visitor);
+			}
+		}
+	}
+	// every regular file below root, one mapped file at a time
+	public void walk(Path root, Consumer<Handle> visitor) throws IOException {
+		walk(root, container -> true, visitor);
+	}
+	public void walk(Path root, Predicate<Handle> descend, Consumer<Handle> visitor) throws IOException {
+		try(Stream<Path> files = Files.walk(root)) {
+			files.filter(Files::isRegularFile).forEach(file -> {
+				try {
+					walk(open(file), descend, visitor);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+	}
+
+	// decode() and children() are computed once and cached, the handle can be shared between threads.
+	// decoding a Yaz0 handle only reads the header, the data is decompressed once by children()
+	public class Handle {
+
+		public final String path; // entries of containers get the container path as prefix, e.g. "Course.szs/course_muunt.byml"
+		public final Format format; // null if unknown
+		private final ByteBuffer data;
+		private Object decoded;
+		private List<Handle> children;
+
+		private Handle(String path, ByteBuffer data) {
+			this.path = path;
+			this.data = data;
+			format = sniff(data);
+		}
+
+		public ByteBuffer data() {
+			return data.duplicate();
+		}
+
+		// e.g. BYMLDecompress or KCLDecompress, decoded once and cached
+		public synchronized Object decode() {
+			if(format == null) {
+				throw new UnsupportedOperationException("Unknown format of "+path);
+			}
+			if(decoded == null) {
+				decoded = format.decoder().apply(data());
+			}
+			return decoded;
+		}
+		public <T> T decode(Class<T> type) {
+			Object object = decode();
+			if(!type.isInstance(object)) {
+				throw new UnsupportedOperationException(path+" is "+format.name()+", not "+type.getSimpleName());
+			}
+			return type.cast(object);
+		}
+
+		// empty for unknown formats and formats that aren't containers
+		public synchronized List<Handle> children() {
+			if(children == null) {
+				if(format == null || !format.isContainer()) {
+					children = List.of();
+				} else {
+					children = new ArrayList<>();
+					format.unwrapper().unwrap(decode()).forEach((name, entry) -> children.add(new Handle(name.isEmpty() ? path : path+"/"+name, entry)));
+				}
+			}
+			return children;
+		}
+
+		// the innermost handle below single-entry wrappers such as Yaz0
+		public Handle unwrapped() {
+			Handle handle = this;
+			while(handle.children().size() == 1 && handle.children().get(0).path.equals(handle.path)) {
+				handle = handle.children().get(0);
+			}
+			return handle;
+		}
+
+		@Override
+		public String toString() {
+			return path+" ("+(format == null ? "unknown" : format.name())+", "+data.limit()+" bytes)";
+		}
+	}
+
+}
@@ -0,0 +1,345 @@
+package compression;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import compression.KCLDecompress.Model;
+import compression.KCLDecompress.Model.Ray;
+import util.Intersections;
+
+// bounding volume hierarchy over the reconstructed triangles of a model, as an alternative to its polygon octree.
+// split with the surface area heuristic on binned triangle centroids, subtrees are built in parallel.
+// nodes are stored depth first in flat arrays, the second child of a node directly follows the subtree of the first.
+public class KCLBVH implements KCLQuery {
+
+	private static final int MAX_LEAF_TRIANGLES = 4;
+	private static final int BINS = 16;
+	private static final int MAX_DEPTH = 64;
+	private static final int FORK_THRESHOLD = 4096;
+	private static final float TRAVERSAL_COST = 1;
+
+	public final Model model;
+	// 6 floats per node: min xyz, max xyz
+	public final float[] bounds;
+	// leafs: index of the first triangle in triangles and the count, inner nodes: index of the second child and 0
+	public final int[] nodes;
+	public final int[] triangles;
+	public final int nodeCount;
+	public final int maxLeafTriangles; // nodes with more triangles are split
+
+	private final float[] vertices;
+	private final int[] subtreeEnds; // index after the subtree of every node, overlap queries skip to it without a stack
+
+	public KCLBVH(Model model) {
+		this(model, MAX_LEAF_TRIANGLES);
+	}
+	public KCLBVH(Model model, int maxLeafTriangles) {
+		this.model = model;
+		this.maxLeafTriangles = maxLeafTriangles;
+		vertices = model.vertices;
+		int count = model.triangleCount;
+
+		float[] triangleBounds = new float[count*6];
+		float[] centroids = new float[count*3];
+		triangles = new int[count];
+		for(int i=0; i<count; i++) {
+			int v = i*9;
+			for(int a=0; a<3; a++) {
+				float min = Math.min(vertices[v+a], Math.min(vertices[v+3+a], vertices[v+6+a]));
+				float max = Math.max(vertices[v+a], Math.max(vertices[v+3+a], vertices[v+6+a]));
+				triangleBounds[i*6+a] = min;
+				triangleBounds[i*6+3+a] = max;
+				centroids[i*3+a] = (min + max) * 0.5f;
+			}
+			triangles[i] = i;
+		}
+
+		BuildNode root = ForkJoinPool.commonPool().invoke(new BuildTask(triangleBounds, centroids, 0, count, 0));
+		nodeCount = root.size;
+		bounds = new float[nodeCount*6];
+		nodes = new int[nodeCount*2];
+		subtreeEnds = new int[nodeCount];
+		flatten(root, 0);
+	}
+
+	// subtree built by BuildTask, only used until it is flattened
+	private static class BuildNode {
+		private final float[] bounds = new float[6];
+		private int start, count;
+		private BuildNode first, second;
+		private int size = 1; // nodes in this subtree
+	}
+
+	private int flatten(BuildNode node, int index) {
+		System.arraycopy(node.bounds, 0, bounds, index*6, 6);
+		if(node.first == null) {
+			nodes[index*2] = node.start;
+			nodes[index*2+1] = node.count;
+			return subtreeEnds[index] = index+1;
+		}
+		int second = flatten(node.first, index+1);
+		nodes[index*2] = second;
+		return subtreeEnds[index] = flatten(node.second, second);
+	}
+
+	private class BuildTask extends RecursiveTask<BuildNode> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] triangleBounds, centroids;
+		private final int start, end, depth;
+
+		private BuildTask(float[] triangleBounds, float[] centroids, int start, int end, int depth) {
+			this.triangleBounds = triangleBounds;
+			this.centroids = centroids;
+			this.start = start;
+			this.end = end;
+			this.depth = depth;
+		}
+
+		@Override
+		protected BuildNode compute() {
+			BuildNode node = new BuildNode();
+			float[] b = node.bounds;
+			b[0] = b[1] = b[2] = Float.POSITIVE_INFINITY;
+			b[3] = b[4] = b[5] = Float.NEGATIVE_INFINITY;
+			float[] centroidBounds = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+					Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+			for(int i=start; i<end; i++) {
+				int t = triangles[i];
+				for(int a=0; a<3; a++) {
+					b[a] = Math.min(b[a], triangleBounds[t*6+a]);
+					b[3+a] = Math.max(b[3+a], triangleBounds[t*6+3+a]);
+					centroidBounds[a] = Math.min(centroidBounds[a], centroids[t*3+a]);
+					centroidBounds[3+a] = Math.max(centroidBounds[3+a], centroids[t*3+a]);
+				}
+			}
+			node.start = start;
+			node.count = end - start;
+			if(node.count <= maxLeafTriangles || depth >= MAX_DEPTH) {
+				return node;
+			}
+
+			// binned SAH over all 3 axes
+			int bestAxis = -1, bestSplit = 0;
+			float bestCost = node.count * area(b, 0) - TRAVERSAL_COST * area(b, 0);
+			int[] binCounts = new int[BINS];
+			float[] binBounds = new float[BINS*6];
+			float[] rightAreas = new float[BINS];
+			int[] rightCounts = new int[BINS];
+			float[] sweep = new float[6];
+			for(int axis=0; axis<3; axis++) {
+				float extent = centroidBounds[3+axis] - centroidBounds[axis];
+				if(!(extent > 0)) {
+					continue;
+				}
+				float scale = BINS / extent;
+				Arrays.fill(binCounts, 0);
+				for(int bin=0; bin<BINS; bin++) {
+					emptyBounds(binBounds, bin*6);
+				}
+				for(int i=start; i<end; i++) {
+					int t = triangles[i];
+					int bin = bin(centroids[t*3+axis], centroidBounds[axis], scale);
+					binCounts[bin]++;
+					grow(binBounds, bin*6, triangleBounds, t*6);
+				}
+				// sweep from the right, then from the left
+				emptyBounds(sweep, 0);
+				int count = 0;
+				for(int bin=BINS-1; bin>0; bin--) {
+					grow(sweep, 0, binBounds, bin*6);
+					count += binCounts[bin];
+					rightAreas[bin] = count == 0 ? 0 : area(sweep, 0);
+					rightCounts[bin] = count;
+				}
+				emptyBounds(sweep, 0);
+				count = 0;
+				for(int split=1; split<BINS; split++) {
+					grow(sweep, 0, binBounds, (split-1)*6);
+					count += binCounts[split-1];
+					if(count == 0 || rightCounts[split] == 0) {
+						continue;
+					}
+					float cost = count * area(sweep, 0) + rightCounts[split] * rightAreas[split];
+					if(cost < bestCost) {
+						bestCost = cost;
+						bestAxis = axis;
+						bestSplit = split;
+					}
+				}
+			}
+			if(bestAxis < 0) {
+				return node;
+			}
+
+			// partition the triangles by their bin
+			float scale = BINS / (centroidBounds[3+bestAxis] - centroidBounds[bestAxis]);
+			int left = start, right = end-1;
+			while(left <= right) {
+				int t = triangles[left];
+				if(bin(centroids[t*3+bestAxis], centroidBounds[bestAxis], scale) < bestSplit) {
+					left++;
+				} else {
+					triangles[left] = triangles[right];
+					triangles[right--] = t;
+				}
+			}
+
+			BuildTask first = new BuildTask(triangleBounds, centroids, start, left, depth+1);
+			BuildTask second = new BuildTask(triangleBounds, centroids, left, end, depth+1);
+			if(node.count >= FORK_THRESHOLD) {
+				invokeAll(first, second);
+				node.first = first.join();
+				node.second = second.join();
+			} else {
+				node.first = first.compute();
+				node.second = second.compute();
+			}
+			node.size = 1 + node.first.size + node.second.size;
+			return node;
+		}
+	}
+
+	private static int bin(float centroid, float min, float scale) {
+		return Math.min(BINS-1, (int) ((centroid - min) * scale));
+	}
+
+	private static void emptyBounds(float[] b, int i) {
+		b[i] = b[i+1] = b[i+2] = Float.POSITIVE_INFINITY;
+		b[i+3] = b[i+4] = b[i+5] = Float.NEGATIVE_INFINITY;
+	}
+
+	private static void grow(float[] b, int i, float[] other, int o) {
+		for(int a=0; a<3; a++) {
+			b[i+a] = Math.min(b[i+a], other[o+a]);
+			b[i+3+a] = Math.max(b[i+3+a], other[o+3+a]);
+		}
+	}
+
+	private static float area(float[] b, int i) {
+		float x = b[i+3]-b[i], y = b[i+4]-b[i+1], z = b[i+5]-b[i+2];
+		return x*y + y*z + z*x;
+	}
+
+
+	@Override
+	public boolean rayCast(Ray ray) {
+		if(model.triangleCount == 0) {
+			return false;
+		}
+		int previous = ray.triangle;
+		ray.triangle = -1;
+		int[] stack = ray.stack((MAX_DEPTH+2)*2); // pairs of node and entry distance (float bits)
+		int size = 0;
+		int node = enter(ray, 0) >= 0 ? 0 : -1;
+		while(true) {
+			if(node < 0) {
+				// far children that start behind the closest hit so far are skipped
+				while(size > 0 && Float.intBitsToFloat(stack[size-1]) > ray.distance) {
+					size -= 2;
+				}
+				if(size == 0) {
+					break;
+				}
+				size -= 2;
+				node = stack[size];
+			}
+			if(nodes[node*2+1] != 0) {
+				int first = nodes[node*2];
+				for(int i=first; i<first+nodes[node*2+1]; i++) {
+					ray.test(vertices, triangles[i]);
+				}
+				node = -1;
+				continue;
+			}
+			// the closer child first, the other one is visited later if it's still in front of the closest hit
+			int first = node+1, second = nodes[node*2];
+			float enterFirst = enter(ray, first), enterSecond = enter(ray, second);
+			if(enterFirst >= 0 && enterSecond >= 0) {
+				if(enterSecond < enterFirst) {
+					int swap = first;
+					first = second;
+					second = swap;
+					enterSecond = enterFirst;
+				}
+				stack[size++] = second;
+				stack[size++] = Float.floatToRawIntBits(enterSecond);
+				node = first;
+			} else if(enterFirst >= 0) {
+				node = first;
+			} else if(enterSecond >= 0) {
+				node = second;
+			} else {
+				node = -1;
+			}
+		}
+		if(ray.triangle < 0) {
+			ray.triangle = previous;
+			return false;
+		}
+		ray.model = model;
+		return true;
+	}
+
+	private float enter(Ray ray, int node) {
+		int b = node*6;
+		return Intersections.rayAabb(ray.ox, ray.oy, ray.oz, ray.invDx, ray.invDy, ray.invDz, ray.distance,
+				bounds[b], bounds[b+1], bounds[b+2], bounds[b+3], bounds[b+4], bounds[b+5]);
+	}
+
+	@Override
+	public int[] overlapSphere(float cx, float cy, float cz, float radius) {
+		BitSet result = new BitSet(model.triangleCount);
+		int node = model.triangleCount > 0 ? 0 : nodeCount;
+		while(node < nodeCount) {
+			int b = node*6;
+			if(!Intersections.sphereAabb(cx, cy, cz, radius, bounds[b], bounds[b+1], bounds[b+2], bounds[b+3], bounds[b+4], bounds[b+5])) {
+				node = subtreeEnds[node];
+				continue;
+			}
+			if(nodes[node*2+1] == 0) {
+				node++;
+				continue;
+			}
+			for(int i=nodes[node*2]; i<nodes[node*2]+nodes[node*2+1]; i++) {
+				int v = triangles[i]*9;
+				if(Intersections.triangleSphere(vertices[v], vertices[v+1], vertices[v+2], vertices[v+3], vertices[v+4], vertices[v+5],
+						vertices[v+6], vertices[v+7], vertices[v+8], cx, cy, cz, radius)) {
+					result.set(triangles[i]);
+				}
+			}
+			node++;
+		}
+		return result.stream().toArray();
+	}
+
+	@Override
+	public int[] overlapAabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		BitSet result = new BitSet(model.triangleCount);
+		int node = model.triangleCount > 0 ? 0 : nodeCount;
+		while(node < nodeCount) {
+			int b = node*6;
+			if(!Intersections.aabbAabb(minX, minY, minZ, maxX, maxY, maxZ, bounds[b], bounds[b+1], bounds[b+2], bounds[b+3], bounds[b+4], bounds[b+5])) {
+				node = subtreeEnds[node];
+				continue;
+			}
+			if(nodes[node*2+1] == 0) {
+				node++;
+				continue;
+			}
+			for(int i=nodes[node*2]; i<nodes[node*2]+nodes[node*2+1]; i++) {
+				int v = triangles[i]*9;
+				if(Intersections.triangleAabb(vertices[v], vertices[v+1], vertices[v+2], vertices[v+3], vertices[v+4], vertices[v+5],
+						vertices[v+6], vertices[v+7], vertices[v+8], minX, minY, minZ, maxX, maxY, maxZ)) {
+					result.set(triangles[i]);
+				}
+			}
+			node++;
+		}
+		return result.stream().toArray();
+	}
+
+}
@@ -0,0 +1,595 @@
+package compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+import util.ByteDataWriter;
+import util.Intersections;
+import util.VertexWelder;
+
+// writes a KCL file (as read by KCLDecompress) from a list of triangles.
+// the model octree splits the space until every cube has few enough triangles for one model,
+// triangles crossing a cube border are stored in every model they touch (with the same globalTriIndex).
+// both octrees are subdivided in parallel on the common fork/join pool.
+public class KCLCompress {
+
+	// maxModelTriangles: the 4 normals of every triangle have to fit into the u16 indices
+	// maxCubeTriangles: polygon octree cubes with more triangles are split further
+	// rootCubeBits: max 2^rootCubeBits root cubes per axis in the polygon octree
+	public record Options(int maxModelTriangles, int maxCubeTriangles, int rootCubeBits) {
+
+		public static final Options DEFAULT = builder().build();
+
+		public static Builder builder() {
+			return new Builder();
+		}
+
+		public Builder toBuilder() {
+			return new Builder().maxModelTriangles(maxModelTriangles).maxCubeTriangles(maxCubeTriangles).rootCubeBits(rootCubeBits);
+		}
+
+		public static class Builder {
+			private int maxModelTriangles = 0x3FFF;
+			private int maxCubeTriangles = 8;
+			private int rootCubeBits = 4;
+
+			private Builder() {}
+
+			public Builder maxModelTriangles(int maxModelTriangles) {
+				this.maxModelTriangles = maxModelTriangles;
+				return this;
+			}
+			public Builder maxCubeTriangles(int maxCubeTriangles) {
+				this.maxCubeTriangles = maxCubeTriangles;
+				return this;
+			}
+			public Builder rootCubeBits(int rootCubeBits) {
+				this.rootCubeBits = rootCubeBits;
+				return this;
+			}
+			public Options build() {
+				return new Options(maxModelTriangles, maxCubeTriangles, rootCubeBits);
+			}
+		}
+	}
+
+	private static final int FORK_THRESHOLD = 256;
+
+	public final Options options;
+	private final float[] vertices;
+	private final short[] collisionFlags;
+	private final int triangleCount;
+
+	// prism data of every input triangle: direction, normal A, B, C (12 floats) and length
+	private float[] prismNormals;
+	private float[] prismLengths;
+
+	// 9 floats per triangle (vertex1, vertex2, vertex3), one collision flag per triangle.
+	// the index of a triangle is written as its globalTriIndex
+	public KCLCompress(float[] vertices, short[] collisionFlags) {
+		this(vertices, collisionFlags, Options.DEFAULT);
+	}
+	public KCLCompress(float[] vertices, short[] collisionFlags, Options options) {
+		if(vertices.length % 9 != 0 || vertices.length / 9 != collisionFlags.length) {
+			throw new UnsupportedOperationException("Expected 9 floats and one collision flag per triangle, got "+vertices.length+" floats and "+collisionFlags.length+" flags");
+		}
+		this.options = options;
+		this.vertices = vertices;
+		this.collisionFlags = collisionFlags;
+		triangleCount = collisionFlags.length;
+	}
+
+	public byte[] compressed() {
+		ByteDataWriter out = new ByteDataWriter();
+		byte[][] models = writeHeader(out);
+		int modelList = out.position() - models.length*4;
+		for(int i=0; i<models.length; i++) {
+			out.putInt(modelList + i*4, out.position());
+			out.putBytes(models[i]);
+		}
+		return out.toByteArray();
+	}
+	// the model offsets are known from the encoded sizes, so the header is written completely first and the models
+	// are written to the channel directly from their encoded arrays, without copying them into one file buffer
+	public void compressed(WritableByteChannel channel) throws IOException {
+		ByteDataWriter out = new ByteDataWriter();
+		byte[][] models = writeHeader(out);
+		int modelList = out.position() - models.length*4;
+		long offset = out.position();
+		for(int i=0; i<models.length; i++) {
+			if(offset > Integer.MAX_VALUE) {
+				throw new UnsupportedOperationException("KCL files are limited to 2GB, model "+i+" would start at "+offset);
+			}
+			out.putInt(modelList + i*4, (int) offset);
+			offset += models[i].length;
+		}
+		out.flush(channel);
+		for(int i=0; i<models.length; i++) {
+			ByteBuffer model = ByteBuffer.wrap(models[i]);
+			while(model.hasRemaining()) {
+				channel.write(model);
+			}
+			models[i] = null;
+		}
+	}
+
+	// header, model octree and reserved model offsets, returns the encoded models
+	private byte[][] writeHeader(ByteDataWriter out) {
+		prismNormals = new float[triangleCount*12];
+		prismLengths = new float[triangleCount];
+		// degenerate triangles can't be stored as prisms and are left out
+		int[] triangles = IntStream.range(0, triangleCount).parallel().filter(this::encodePrism).toArray();
+
+		float[] min = new float[3], max = new float[3];
+		int[] coordShift = { 1, 1, 1 };
+		if(triangles.length > 0) {
+			bounds(triangles, min, max);
+			for(int a=0; a<3; a++) {
+				coordShift[a] = Math.max(1, bitsFor((int) (max[a]-min[a]) + 1));
+			}
+		}
+
+		// model octree, the whole file in one model if possible.
+		// every level halves all axes, so a flat mesh can run out of height before the cubes are small enough.
+		// the short axes are grown to the longest one then, the cubes just reach into empty space
+		ModelNode[] root = buildModelOctree(triangles, min, coordShift);
+		if(root == null) {
+			int longest = Math.max(coordShift[0], Math.max(coordShift[1], coordShift[2]));
+			Arrays.fill(coordShift, longest);
+			root = buildModelOctree(triangles, min, coordShift);
+			if(root == null) {
+				throw new IllegalArgumentException("More than "+options.maxModelTriangles()+" triangles touch a single unit cube, they can't be split into models");
+			}
+		}
+
+		IdentityHashMap<int[], Integer> modelIndices = new IdentityHashMap<>();
+		List<int[]> modelTriangles = new ArrayList<>();
+		int octreeBlocks = assignModels(root, modelIndices, modelTriangles);
+		byte[][] models = modelTriangles.parallelStream().map(this::writeModel).toArray(byte[][]::new);
+
+		int offsetToOctree = 0x38;
+		int offsetToModelList = offsetToOctree + octreeBlocks*32;
+
+		out.putBytes(new byte[] { 2, 2, 0, 0 });
+		out.putInt(offsetToOctree);
+		out.putInt(offsetToModelList);
+		out.putInt(models.length);
+		out.putFloat(min[0]).putFloat(min[1]).putFloat(min[2]);
+		out.putFloat(max[0]).putFloat(max[1]).putFloat(max[2]);
+		out.putInt(coordShift[0]).putInt(coordShift[1]).putInt(coordShift[2]);
+		out.putInt(triangles.length);
+
+		writeModelOctree(root, out, modelIndices);
+
+		for(int i=0; i<models.length; i++) {
+			out.reserveInt();
+		}
+		return models;
+	}
+
+	// inverse of the triangle reconstruction in KCLDecompress.Model, calculated in double precision
+	private boolean encodePrism(int index) {
+		int v = index*9;
+		double ax = vertices[v], ay = vertices[v+1], az = vertices[v+2];
+		double abx = vertices[v+3]-ax, aby = vertices[v+4]-ay, abz = vertices[v+5]-az;
+		double acx = vertices[v+6]-ax, acy = vertices[v+7]-ay, acz = vertices[v+8]-az;
+		double bcx = acx-abx, bcy = acy-aby, bcz = acz-abz;
+
+		double dx = aby*acz - abz*acy, dy = abz*acx - abx*acz, dz = abx*acy - aby*acx;
+		double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if(!(length > 0) || Double.isInfinite(length)) {
+			return false;
+		}
+		dx /= length;
+		dy /= length;
+		dz /= length;
+
+		int n = index*12;
+		prismNormals[n] = (float) dx;
+		prismNormals[n+1] = (float) dy;
+		prismNormals[n+2] = (float) dz;
+		putNormal(n+3, dy*acz - dz*acy, dz*acx - dx*acz, dx*acy - dy*acx); // direction x (C-A)
+		putNormal(n+6, aby*dz - abz*dy, abz*dx - abx*dz, abx*dy - aby*dx); // (B-A) x direction
+		putNormal(n+9, bcy*dz - bcz*dy, bcz*dx - bcx*dz, bcx*dy - bcy*dx); // (C-B) x direction
+		prismLengths[index] = (float) (abx*prismNormals[n+9] + aby*prismNormals[n+10] + abz*prismNormals[n+11]);
+		return true;
+	}
+
+	private void putNormal(int n, double x, double y, double z) {
+		double length = Math.sqrt(x*x + y*y + z*z);
+		prismNormals[n] = (float) (x / length);
+		prismNormals[n+1] = (float) (y / length);
+		prismNormals[n+2] = (float) (z / length);
+	}
+
+	private void bounds(int[] triangles, float[] min, float[] max) {
+		Arrays.fill(min, Float.POSITIVE_INFINITY);
+		Arrays.fill(max, Float.NEGATIVE_INFINITY);
+		for(int t : triangles) {
+			for(int v=t*9; v<t*9+9; v+=3) {
+				for(int a=0; a<3; a++) {
+					min[a] = Math.min(min[a], vertices[v+a]);
+					max[a] = Math.max(max[a], vertices[v+a]);
+				}
+			}
+		}
+	}
+
+	// smallest number of bits with 1 << bits >= size
+	private static int bitsFor(int size) {
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size-1);
+	}
+
+	private boolean touches(int t, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		int v = t*9;
+		return Intersections.triangleAabb(vertices[v], vertices[v+1], vertices[v+2], vertices[v+3], vertices[v+4], vertices[v+5],
+				vertices[v+6], vertices[v+7], vertices[v+8], minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	private int[] filter(int[] candidates, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		int[] inside = new int[candidates.length];
+		int count = 0;
+		for(int t : candidates) {
+			if(touches(t, minX, minY, minZ, maxX, maxY, maxZ)) {
+				inside[count++] = t;
+			}
+		}
+		return count == inside.length ? inside : Arrays.copyOf(inside, count);
+	}
+
+
+	// null if a cube with too many triangles can't be halved anymore
+	private ModelNode[] buildModelOctree(int[] triangles, float[] min, int[] coordShift) {
+		ModelNode[] root = new ModelNode[8];
+		float sizeX = (1 << coordShift[0]) * 0.5f, sizeY = (1 << coordShift[1]) * 0.5f, sizeZ = (1 << coordShift[2]) * 0.5f;
+		ModelCubeTask[] tasks = new ModelCubeTask[8];
+		for(int i=0; i<8; i++) {
+			tasks[i] = new ModelCubeTask(min[0] + ((i & 1) != 0 ? sizeX : 0), min[1] + ((i & 2) != 0 ? sizeY : 0), min[2] + ((i & 4) != 0 ? sizeZ : 0),
+					sizeX, sizeY, sizeZ, triangles);
+		}
+		ForkJoinTask.invokeAll(tasks);
+		for(int i=0; i<8; i++) {
+			root[i] = tasks[i].join();
+			if(root[i] == ModelNode.TOO_SMALL) {
+				return null;
+			}
+			if(triangles.length <= options.maxModelTriangles() && root[i].triangles != null) {
+				root[i].triangles = triangles;
+			}
+		}
+		return root;
+	}
+
+	// one of the 8 nodes of a model octree block: NoData if both are null
+	private static class ModelNode {
+		private static final ModelNode TOO_SMALL = new ModelNode(); // marks a failed subdivision
+
+		private int[] triangles; // Values
+		private ModelNode[] children; // Divide
+	}
+
+	private class ModelCubeTask extends RecursiveTask<ModelNode> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float minX, minY, minZ, sizeX, sizeY, sizeZ;
+		private final int[] candidates;
+
+		private ModelCubeTask(float minX, float minY, float minZ, float sizeX, float sizeY, float sizeZ, int[] candidates) {
+			this.minX = minX; this.minY = minY; this.minZ = minZ;
+			this.sizeX = sizeX; this.sizeY = sizeY; this.sizeZ = sizeZ;
+			this.candidates = candidates;
+		}
+
+		@Override
+		protected ModelNode compute() {
+			ModelNode node = new ModelNode();
+			int[] inside = filter(candidates, minX, minY, minZ, minX+sizeX, minY+sizeY, minZ+sizeZ);
+			if(inside.length == 0) {
+				return node;
+			}
+			if(inside.length <= options.maxModelTriangles()) {
+				node.triangles = inside;
+				return node;
+			}
+			// cubes have to stay whole units for the lookup in KCLDecompress.modelIndexAt
+			if(sizeX < 2 || sizeY < 2 || sizeZ < 2) {
+				return ModelNode.TOO_SMALL;
+			}
+			float halfX = sizeX*0.5f, halfY = sizeY*0.5f, halfZ = sizeZ*0.5f;
+			ModelCubeTask[] tasks = new ModelCubeTask[8];
+			for(int i=0; i<8; i++) {
+				tasks[i] = new ModelCubeTask(minX + ((i & 1) != 0 ? halfX : 0), minY + ((i & 2) != 0 ? halfY : 0), minZ + ((i & 4) != 0 ? halfZ : 0),
+						halfX, halfY, halfZ, inside);
+			}
+			invokeAll(tasks);
+			node.children = new ModelNode[8];
+			for(int i=0; i<8; i++) {
+				node.children[i] = tasks[i].join();
+				if(node.children[i] == ModelNode.TOO_SMALL) {
+					return ModelNode.TOO_SMALL;
+				}
+			}
+			return node;
+		}
+	}
+
+	// numbers the models in the order the blocks are written, returns the number of blocks
+	private static int assignModels(ModelNode[] nodes, IdentityHashMap<int[], Integer> modelIndices, List<int[]> modelTriangles) {
+		int blocks = 1;
+		for(ModelNode node : nodes) {
+			if(node.children != null) {
+				blocks += assignModels(node.children, modelIndices, modelTriangles);
+			} else if(node.triangles != null && !modelIndices.containsKey(node.triangles)) {
+				modelIndices.put(node.triangles, modelTriangles.size());
+				modelTriangles.add(node.triangles);
+			}
+		}
+		return blocks;
+	}
+
+	// subtrees follow their parent block directly, depth first
+	private static void writeModelOctree(ModelNode[] nodes, ByteDataWriter out, IdentityHashMap<int[], Integer> modelIndices) {
+		int startOfNode = out.position();
+		for(int i=0; i<8; i++) {
+			out.reserveInt();
+		}
+		for(int i=0; i<8; i++) {
+			ModelNode node = nodes[i];
+			if(node.children != null) {
+				out.putInt(startOfNode + i*4, (out.position() - startOfNode) / 4);
+				writeModelOctree(node.children, out, modelIndices);
+			} else if(node.triangles != null) {
+				out.putInt(startOfNode + i*4, 0x80000000 | modelIndices.get(node.triangles));
+			} else {
+				out.putInt(startOfNode + i*4, 0xC0000000);
+			}
+		}
+	}
+
+
+	private byte[] writeModel(int[] triangles) {
+		int count = triangles.length;
+		if(count >= 0xFFFF) {
+			throw new UnsupportedOperationException("Too many triangles in one model: "+count);
+		}
+		float[] positions = new float[count*3];
+		float[] normals = new float[count*12];
+		for(int i=0; i<count; i++) {
+			System.arraycopy(vertices, triangles[i]*9, positions, i*3, 3);
+			System.arraycopy(prismNormals, triangles[i]*12, normals, i*12, 12);
+		}
+		VertexWelder weldedPositions = new VertexWelder(positions);
+		VertexWelder weldedNormals = new VertexWelder(normals);
+		if(weldedNormals.count > 0x10000) {
+			throw new UnsupportedOperationException("Too many normals in one model: "+weldedNormals.count);
+		}
+
+		// polygon octree layout, the model bounds are rounded to whole units
+		float[] min = new float[3], max = new float[3];
+		bounds(triangles, min, max);
+		int[] bits = new int[3];
+		for(int a=0; a<3; a++) {
+			min[a] = (float) Math.floor(min[a]);
+			bits[a] = bitsFor((int) (max[a]-min[a]) + 1);
+		}
+		int cubeShift = Math.max(0, Math.max(bits[0], Math.max(bits[1], bits[2])) - options.rootCubeBits());
+		int[] mask = new int[3];
+		for(int a=0; a<3; a++) {
+			bits[a] = Math.max(bits[a], cubeShift);
+			mask[a] = ~((1 << bits[a]) - 1);
+		}
+		int yShift = bits[0] - cubeShift;
+		int zShift = yShift + bits[1] - cubeShift;
+		byte[] octree = writePolygonOctree(buildPolygonOctree(triangles, min, bits, cubeShift));
+
+		int offsetSection1 = 0x3C;
+		int offsetSection2 = offsetSection1 + weldedPositions.count*0x0C;
+		int offsetSection3 = offsetSection2 + weldedNormals.count*0x0C;
+		int offsetSection4 = offsetSection3 + count*0x14;
+		ByteDataWriter out = new ByteDataWriter((offsetSection4 + octree.length + 3) & ~3, ByteOrder.LITTLE_ENDIAN);
+		out.putInt(offsetSection1).putInt(offsetSection2).putInt(offsetSection3).putInt(offsetSection4);
+		out.putFloat(40); // thickness
+		out.putFloat(min[0]).putFloat(min[1]).putFloat(min[2]);
+		out.putInt(mask[0]).putInt(mask[1]).putInt(mask[2]);
+		out.putInt(cubeShift).putInt(yShift).putInt(zShift);
+		out.putFloat(0); // sphere radius
+		out.putFloats(weldedPositions.vertices);
+		out.putFloats(weldedNormals.vertices);
+		for(int i=0; i<count; i++) {
+			int t = triangles[i];
+			out.putFloat(prismLengths[t]);
+			out.putShort(weldedPositions.remap[i]);
+			out.putShort(weldedNormals.remap[i*4]);
+			out.putShort(weldedNormals.remap[i*4+1]);
+			out.putShort(weldedNormals.remap[i*4+2]);
+			out.putShort(weldedNormals.remap[i*4+3]);
+			out.putShort(collisionFlags[t]);
+			out.putInt(t);
+		}
+		out.putBytes(octree);
+		out.align(4);
+		return out.toByteArray();
+	}
+
+	// one cube of the polygon octree, triangles are indices into the model
+	private static class PolygonNode {
+		private int[] triangles;
+		private PolygonNode[] children;
+		private int offset; // of the block with the children, while writing
+	}
+
+	private PolygonNode[] buildPolygonOctree(int[] triangles, float[] min, int[] bits, int cubeShift) {
+		int countX = 1 << (bits[0]-cubeShift), countY = 1 << (bits[1]-cubeShift), countZ = 1 << (bits[2]-cubeShift);
+		int rootCubes = countX*countY*countZ;
+		int cubeSize = 1 << cubeShift;
+
+		// sort the triangles into the root cubes touched by their bounding box
+		int[][] lists = new int[rootCubes][];
+		int[] counts = new int[rootCubes];
+		for(int i=0; i<triangles.length; i++) {
+			int v = triangles[i]*9;
+			int loX = cubeIndex(Math.min(vertices[v], Math.min(vertices[v+3], vertices[v+6])) - min[0], cubeShift, countX);
+			int hiX = cubeIndex(Math.max(vertices[v], Math.max(vertices[v+3], vertices[v+6])) - min[0], cubeShift, countX);
+			int loY = cubeIndex(Math.min(vertices[v+1], Math.min(vertices[v+4], vertices[v+7])) - min[1], cubeShift, countY);
+			int hiY = cubeIndex(Math.max(vertices[v+1], Math.max(vertices[v+4], vertices[v+7])) - min[1], cubeShift, countY);
+			int loZ = cubeIndex(Math.min(vertices[v+2], Math.min(vertices[v+5], vertices[v+8])) - min[2], cubeShift, countZ);
+			int hiZ = cubeIndex(Math.max(vertices[v+2], Math.max(vertices[v+5], vertices[v+8])) - min[2], cubeShift, countZ);
+			boolean single = loX == hiX && loY == hiY && loZ == hiZ;
+			for(int z=loZ; z<=hiZ; z++) {
+				for(int y=loY; y<=hiY; y++) {
+					for(int x=loX; x<=hiX; x++) {
+						float minX = min[0] + x*cubeSize, minY = min[1] + y*cubeSize, minZ = min[2] + z*cubeSize;
+						if(single || touches(triangles[i], minX, minY, minZ, minX+cubeSize, minY+cubeSize, minZ+cubeSize)) {
+							int cube = (z*countY + y)*countX + x;
+							if(lists[cube] == null) {
+								lists[cube] = new int[4];
+							} else if(counts[cube] == lists[cube].length) {
+								lists[cube] = Arrays.copyOf(lists[cube], counts[cube]*2);
+							}
+							lists[cube][counts[cube]++] = i;
+						}
+					}
+				}
+			}
+		}
+
+		PolygonCubeTask[] tasks = new PolygonCubeTask[rootCubes];
+		for(int cube=0; cube<rootCubes; cube++) {
+			int x = cube % countX, y = (cube / countX) % countY, z = cube / (countX*countY);
+			int[] inside = lists[cube] == null ? new int[0] : Arrays.copyOf(lists[cube], counts[cube]);
+			tasks[cube] = new PolygonCubeTask(triangles, min, x*cubeSize, y*cubeSize, z*cubeSize, cubeShift, inside, false);
+		}
+		ForkJoinTask.invokeAll(tasks);
+		PolygonNode[] roots = new PolygonNode[rootCubes];
+		for(int cube=0; cube<rootCubes; cube++) {
+			roots[cube] = tasks[cube].join();
+		}
+		return roots;
+	}
+
+	private static int cubeIndex(float offset, int cubeShift, int count) {
+		return Math.max(0, Math.min(count-1, ((int) offset) >> cubeShift));
+	}
+
+	private class PolygonCubeTask extends RecursiveTask<PolygonNode> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] modelTriangles;
+		private final float[] min;
+		private final int x, y, z, shift;
+		private final int[] candidates;
+		private final boolean filter;
+
+		private PolygonCubeTask(int[] modelTriangles, float[] min, int x, int y, int z, int shift, int[] candidates, boolean filter) {
+			this.modelTriangles = modelTriangles;
+			this.min = min;
+			this.x = x; this.y = y; this.z = z;
+			this.shift = shift;
+			this.candidates = candidates;
+			this.filter = filter;
+		}
+
+		@Override
+		protected PolygonNode compute() {
+			int[] inside = candidates;
+			if(filter) {
+				float size = 1 << shift;
+				float minX = min[0] + x, minY = min[1] + y, minZ = min[2] + z;
+				inside = new int[candidates.length];
+				int count = 0;
+				for(int i : candidates) {
+					if(touches(modelTriangles[i], minX, minY, minZ, minX+size, minY+size, minZ+size)) {
+						inside[count++] = i;
+					}
+				}
+				inside = Arrays.copyOf(inside, count);
+			}
+
+			PolygonNode node = new PolygonNode();
+			if(inside.length <= options.maxCubeTriangles() || shift == 0) {
+				node.triangles = inside;
+				return node;
+			}
+			int half = 1 << (shift-1);
+			PolygonCubeTask[] tasks = new PolygonCubeTask[8];
+			for(int i=0; i<8; i++) {
+				tasks[i] = new PolygonCubeTask(modelTriangles, min, x + ((i & 1) != 0 ? half : 0), y + ((i & 2) != 0 ? half : 0), z + ((i & 4) != 0 ? half : 0),
+						shift-1, inside, true);
+			}
+			node.children = new PolygonNode[8];
+			if(inside.length >= FORK_THRESHOLD) {
+				invokeAll(tasks);
+				for(int i=0; i<8; i++) {
+					node.children[i] = tasks[i].join();
+				}
+			} else {
+				for(int i=0; i<8; i++) {
+					node.children[i] = tasks[i].compute();
+				}
+			}
+			return node;
+		}
+	}
+
+	// root keys, then all branch blocks (breadth first) and the triangle lists.
+	// leaf keys point to the u16 before their list, empty leafs all share the 0xFFFF at the start of the lists
+	private static byte[] writePolygonOctree(PolygonNode[] roots) {
+		List<PolygonNode> branches = new ArrayList<>();
+		int listsSize = 2;
+		List<PolygonNode> queue = new ArrayList<>(Arrays.asList(roots));
+		for(int i=0; i<queue.size(); i++) {
+			PolygonNode node = queue.get(i);
+			if(node.children != null) {
+				node.offset = roots.length*4 + branches.size()*32;
+				branches.add(node);
+				queue.addAll(Arrays.asList(node.children));
+			} else if(node.triangles.length > 0) {
+				listsSize += node.triangles.length*2 + 2;
+			}
+		}
+
+		int listsOffset = roots.length*4 + branches.size()*32;
+		ByteDataWriter out = new ByteDataWriter(listsOffset + listsSize, ByteOrder.LITTLE_ENDIAN);
+		for(int i=0; i<listsOffset/4; i++) {
+			out.reserveInt();
+		}
+		out.putShort(0xFFFF);
+		for(int i=0; i<roots.length; i++) {
+			out.putInt(i*4, key(roots[i], 0, out, listsOffset));
+		}
+		for(PolygonNode branch : branches) {
+			for(int i=0; i<8; i++) {
+				out.putInt(branch.offset + i*4, key(branch.children[i], branch.offset, out, listsOffset));
+			}
+		}
+		return out.toByteArray();
+	}
+
+	// writes the list of leafs to the end of the buffer
+	private static int key(PolygonNode node, int parentOffset, ByteDataWriter out, int listsOffset) {
+		if(node.children != null) {
+			return node.offset - parentOffset;
+		}
+		if(node.triangles.length == 0) {
+			return 0x80000000 | (listsOffset - 2 - parentOffset);
+		}
+		int start = out.position();
+		for(int index : node.triangles) {
+			out.putShort(index);
+		}
+		out.putShort(0xFFFF);
+		return 0x80000000 | (start - 2 - parentOffset);
+	}
+
+}
@@ -1,48 +1,260 @@
 package compression;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.List;
+import java.util.stream.IntStream;
 
 import types.Vector3f;
 import util.ByteDataStream;
-import util.NintendoUtil;
+import util.Intersections;
+import util.ValidationLevel;
+import util.VertexWelder;
 
 public class KCLDecompress {
 	
-	public static int COMPRESSION_LEVEL = 0; //0 = none, 1 = search SAME (base) vertex, 2 = search all equal vertices
-	public static boolean PARSE_POLYGON_OCTREE = false;
+	// compressionLevel: 0 = none, 1/2 = merge equal vertices (see weldEpsilon)
+	// weldEpsilon: maximum distance of merged vertices, 0 = only merge exactly equal ones
+	// compactGeometry: only keep the flat arrays in Model, triangles/vertexs are created on first access
+	// lazyModels: models are decoded on first access (getModel)
+	public record Options(int compressionLevel, float weldEpsilon, boolean parsePolygonOctree, boolean compactGeometry, boolean lazyModels, ValidationLevel validation) {
+		
+		public static final Options DEFAULT = builder().build();
+		
+		public static Builder builder() {
+			return new Builder();
+		}
+		
+		public Builder toBuilder() {
+			return new Builder().compressionLevel(compressionLevel).weldEpsilon(weldEpsilon).parsePolygonOctree(parsePolygonOctree)
+					.compactGeometry(compactGeometry).lazyModels(lazyModels).validation(validation);
+		}
+		
+		public static class Builder {
+			private int compressionLevel = 0;
+			private float weldEpsilon = 0;
+			private boolean parsePolygonOctree = true;
+			private boolean compactGeometry = false;
+			private boolean lazyModels = false;
+			private ValidationLevel validation = ValidationLevel.STRICT;
+			
+			private Builder() {}
+			
+			public Builder compressionLevel(int compressionLevel) {
+				this.compressionLevel = compressionLevel;
+				return this;
+			}
+			public Builder weldEpsilon(float weldEpsilon) {
+				this.weldEpsilon = weldEpsilon;
+				return this;
+			}
+			public Builder parsePolygonOctree(boolean parsePolygonOctree) {
+				this.parsePolygonOctree = parsePolygonOctree;
+				return this;
+			}
+			public Builder compactGeometry(boolean compactGeometry) {
+				this.compactGeometry = compactGeometry;
+				return this;
+			}
+			public Builder lazyModels(boolean lazyModels) {
+				this.lazyModels = lazyModels;
+				return this;
+			}
+			public Builder validation(ValidationLevel validation) {
+				this.validation = validation;
+				return this;
+			}
+			public Options build() {
+				return new Options(compressionLevel, weldEpsilon, parsePolygonOctree, compactGeometry, lazyModels, validation);
+			}
+		}
+	}
+
+	private static final VarHandle MODELS = MethodHandles.arrayElementVarHandle(Model[].class);
 
+	public final Options options;
 	public Model[] models;
 	public ModelOctree modelOctree;
+	
+	// the model octree starts at minValues and is 1 << coordShift wide on each axis, every level halves it
+	public Vector3f minValues, maxValues;
+	public int[] coordShift;
+	public int prismCount;
+	// keys of the model octree as stored in the file, 8 per block. Divide values are relative to their block
+	public int[] modelOctreeKeys;
+	
+	// only kept until all models are decoded
+	private ByteBuffer dataBuffer;
+	private final int[] modelOffsets;
+	private final int[] modelEnds; // next model offset or end of the file
+	private final Object[] modelLocks;
 
 	public KCLDecompress(byte[] dataArray) {
-		ByteDataStream data = new ByteDataStream(dataArray);
+		this(dataArray, Options.DEFAULT);
+	}
+	public KCLDecompress(byte[] dataArray, Options options) {
+		this(ByteBuffer.wrap(dataArray), options);
+	}
+	// works on direct and mapped buffers without copying them, lazy models keep a reference to the buffer
+	public KCLDecompress(ByteBuffer dataBuffer, Options options) {
+		this.options = options;
+		ByteDataStream data = new ByteDataStream(dataBuffer);
+		data.validation(options.validation());
 		
 		data.expectBytes(new byte[] { 2, 2, 0, 0 }, "KCL version magic");
 		int offsetToOctree = data.getInt();
 		int offsetToModelList = data.getInt();
 		int modelCount = data.getInt();
-		Vector3f minValues = data.readVector3F();
-		Vector3f maxValues = data.readVector3F();
-		int[] coordShift = data.readVector3U();
-		int prismCount = data.getInt(); // not quite, but really close to it...?
+		minValues = data.readVector3F();
+		maxValues = data.readVector3F();
+		coordShift = data.readVector3U();
+		prismCount = data.getInt(); // not quite, but really close to it...?
+		models = new Model[modelCount];
 		
 		data.assertPosition(offsetToOctree);
 		modelOctree = new ModelOctree(data);
 
 		data.assertPosition(offsetToModelList);
+		data.seek(offsetToOctree);
+		modelOctreeKeys = data.getInts((offsetToModelList - offsetToOctree) / 4);
 		
-		int[] offsets = data.getInts(modelCount);
-		models = new Model[modelCount];
+		modelOffsets = data.getInts(modelCount);
+		modelEnds = new int[modelCount];
+		int[] sortedOffsets = modelOffsets.clone();
+		Arrays.sort(sortedOffsets);
 		for (int i = 0; i < modelCount; i++) {
-			int offset = offsets[i];
-			data.seek(offset); // TODO fix PolygonOctree and add assertEOF
-			models[i] = new Model(data);
-			if(COMPRESSION_LEVEL > 0) {
-				models[i].mergeDuplicateVerticies();
-				models[i].removeUnusedVerticies();
+			int next = Arrays.binarySearch(sortedOffsets, modelOffsets[i]);
+			while(next < modelCount && sortedOffsets[next] <= modelOffsets[i]) {
+				next++;
+			}
+			modelEnds[i] = next < modelCount ? sortedOffsets[next] : data.size();
+		}
+		modelLocks = new Object[modelCount];
+		for (int i = 0; i < modelCount; i++) {
+			modelLocks[i] = new Object();
+		}
+		this.dataBuffer = data.slice(0, data.size());
+		if(!options.lazyModels()) {
+			getModels();
+			this.dataBuffer = null;
+		}
+	}
+	
+	// decodes the model on first access, every model has its own stream so they can be decoded in parallel
+	public Model getModel(int index) {
+		Model model = (Model) MODELS.getAcquire(models, index);
+		if(model != null) {
+			return model;
+		}
+		synchronized(modelLocks[index]) {
+			model = models[index];
+			if(model == null) {
+				model = readModel(index);
+				MODELS.setRelease(models, index, model);
+			}
+		}
+		return model;
+	}
+	
+	// the cached model if there is one, otherwise decoded without caching it, e.g. for a single pass over all models
+	public Model decodeModel(int index) {
+		Model model = (Model) MODELS.getAcquire(models, index);
+		return model != null ? model : readModel(index);
+	}
+	
+	private Model readModel(int index) {
+		// limited to the model, reads past its end fail instead of decoding the next model
+		ByteDataStream data = new ByteDataStream(dataBuffer.slice(0, modelEnds[index]));
+		data.validation(options.validation());
+		data.seek(modelOffsets[index]);
+		Model model = new Model(data, options);
+		if(options.compressionLevel() > 0) {
+			model.weld(options.weldEpsilon());
+		}
+		return model;
+	}
+	
+	// decodes all remaining models
+	public Model[] getModels() {
+		IntStream.range(0, models.length).parallel().forEach(this::getModel);
+		return models;
+	}
+	
+	// model responsible for the point, null if there is none
+	public Model modelAt(float x, float y, float z) {
+		int index = modelIndexAt(x, y, z);
+		return index < 0 ? null : getModel(index);
+	}
+	
+	// index of the model responsible for the point, -1 if there is none
+	public int modelIndexAt(float x, float y, float z) {
+		float ox = x - minValues.x, oy = y - minValues.y, oz = z - minValues.z;
+		if(!(ox >= 0 && oy >= 0 && oz >= 0 && ox < (1L << coordShift[0]) && oy < (1L << coordShift[1]) && oz < (1L << coordShift[2]))) {
+			return -1;
+		}
+		int ix = (int) ox, iy = (int) oy, iz = (int) oz;
+		int sx = coordShift[0], sy = coordShift[1], sz = coordShift[2];
+		int block = 0;
+		while(sx > 0 && sy > 0 && sz > 0) {
+			sx--;
+			sy--;
+			sz--;
+			int key = modelOctreeKeys[block + (((iz >> sz) & 1) << 2 | ((iy >> sy) & 1) << 1 | ((ix >> sx) & 1))];
+			switch(key >>> 30) {
+			case 0b00 -> block += key & 0x3FFFFFFF;
+			case 0b10 -> { return key & 0x3FFFFFFF; }
+			default -> { return -1; }
+			}
+		}
+		throw new UnsupportedOperationException("Model octree is deeper than the coordinate shift allows");
+	}
+	
+	// indices of all models whose cubes touch the box, sorted
+	public int[] modelsInAabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		BitSet models = new BitSet();
+		modelsInAabb(0, 0, 0, 0, coordShift[0], coordShift[1], coordShift[2], minX, minY, minZ, maxX, maxY, maxZ, models);
+		return models.stream().toArray();
+	}
+	
+	// globalTriIndex of all triangles with the collision flag touching the box, over all models, sorted
+	public int[] overlapAabb(short flag, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		BitSet result = new BitSet();
+		for(int index : modelsInAabb(minX, minY, minZ, maxX, maxY, maxZ)) {
+			Model model = getModel(index);
+			for(int triangle : model.overlapAabb(flag, minX, minY, minZ, maxX, maxY, maxZ)) {
+				result.set(model.globalTriIndices[triangle]);
+			}
+		}
+		return result.stream().toArray();
+	}
+	
+	private void modelsInAabb(int block, int x, int y, int z, int sx, int sy, int sz,
+			float minX, float minY, float minZ, float maxX, float maxY, float maxZ, BitSet models) {
+		if(sx <= 0 || sy <= 0 || sz <= 0) {
+			throw new UnsupportedOperationException("Model octree is deeper than the coordinate shift allows");
+		}
+		sx--;
+		sy--;
+		sz--;
+		for(int i=0; i<8; i++) {
+			int key = modelOctreeKeys[block+i];
+			if((key >>> 30) == 0b11) {
+				continue;
+			}
+			int cx = x + ((i & 1) << sx), cy = y + (((i >> 1) & 1) << sy), cz = z + ((i >> 2) << sz);
+			float cubeMinX = minValues.x + cx, cubeMinY = minValues.y + cy, cubeMinZ = minValues.z + cz;
+			if(!Intersections.aabbAabb(minX, minY, minZ, maxX, maxY, maxZ,
+					cubeMinX, cubeMinY, cubeMinZ, cubeMinX + (1 << sx), cubeMinY + (1 << sy), cubeMinZ + (1 << sz))) {
+				continue;
+			}
+			if((key >>> 30) == 0b10) {
+				models.set(key & 0x3FFFFFFF);
+			} else {
+				modelsInAabb(block + (key & 0x3FFFFFFF), cx, cy, cz, sx, sy, sz, minX, minY, minZ, maxX, maxY, maxZ, models);
 			}
 		}
 	}
@@ -69,6 +281,9 @@ public class KCLDecompress {
 				}
 				case Values: {
 					modelIndex = value;
+					if(options.validation().checksIndices() && modelIndex >= models.length) {
+						throw new UnsupportedOperationException("Model octree references model "+modelIndex+", but there are only "+models.length);
+					}
 					break;
 				}
 				case NoData: {
@@ -114,12 +329,43 @@ public class KCLDecompress {
 		}
 	}
 
-	public static class Model {
+	public static class Model implements KCLQuery {
+		
+		private static final float EPSILON = 0.00000011921f;
 
-		public Triangle[] triangles;
+		// object view, created on first access if compactGeometry is enabled
+		public volatile Triangle[] triangles;
 		public Vector3f[] vertexs;
+		
+		// positions and normals as stored in the file (xyz)
+		public float[] positions, normals;
+		// prisms, one entry per triangle. indices are unsigned
+		public float[] lengths;
+		public short[] positionIndices, directionIndices, normalAIndices, normalBIndices, normalCIndices;
+		public short[] collisionFlags;
+		public int[] globalTriIndices;
+		// reconstructed triangles, 9 floats (vertex1, vertex2, vertex3) per triangle
+		public float[] vertices;
+		public int triangleCount;
+		// merged vertices and 3 indices into them per triangle, only set if the model was welded
+		public float[] weldedVertices;
+		public int[] weldedIndices;
+		
+		// layout of the polygon octree
+		public Vector3f minCoordinate;
+		public int[] mask;
+		public int[] shift; // coordinate shift (width of the root cubes), y shift, z shift (for the root cube index)
+		public PolygonOctree[] octrees; // null if parsePolygonOctree is disabled
+		private volatile FlagIndex flagIndex;
+
+		private final boolean checkIndices;
 
 		public Model(ByteDataStream data) {
+			this(data, Options.DEFAULT);
+		}
+		// expected values and positions are checked according to the validation level of the stream, indices according to the options
+		public Model(ByteDataStream data, Options options) {
+			checkIndices = options.validation().checksIndices();
 			int startPos = data.position();
 			
 			int offsetSection1 = data.getInt();
@@ -127,36 +373,102 @@ public class KCLDecompress {
 			int offsetSection3 = data.getInt();
 			int offsetSection4 = data.getInt();
 			data.expectFloat(40, "thickness");
-			Vector3f minCoordinate = data.readVector3F();
-			int[] mask = data.readVector3U();
-			int[] shift = data.readVector3U();
+			minCoordinate = data.readVector3F();
+			mask = data.readVector3U();
+			shift = data.readVector3U();
 			data.expectFloat(0, "sphere radius");
 			
 			data.assertPosition(startPos+offsetSection1);
 
 			int verticesCount = (offsetSection2 - offsetSection1) / 0x0C;
-			Vector3f[] vertices = new Vector3f[verticesCount];
-			for (int i = 0; i < verticesCount; i++) {
-				vertices[i] = data.readVector3F();
-			}
+			positions = data.getFloats(verticesCount*3);
 			
 			data.assertPosition(startPos+offsetSection2);
 
 			int normalCount = (offsetSection3 - offsetSection2) / 0x0C;
-			Vector3f[] normals = new Vector3f[normalCount];
-			for (int i = 0; i < normalCount; i++) {
-				normals[i] = data.readVector3F();
-			}
+			normals = data.getFloats(normalCount*3);
 			
 			data.assertPosition(startPos+offsetSection3);
 
-			int triCount = (offsetSection4 - offsetSection3) / 0x14;
-
-			triangles = new Triangle[triCount];
-			vertexs = new Vector3f[triCount*3];
-			for (int i = 0; i < triCount; i++) {
-				NinTriangle tri = new NinTriangle(data);
-				triangles[i] = new Triangle(tri, vertices, normals);
+			triangleCount = (offsetSection4 - offsetSection3) / 0x14;
+			lengths = new float[triangleCount];
+			positionIndices = new short[triangleCount];
+			directionIndices = new short[triangleCount];
+			normalAIndices = new short[triangleCount];
+			normalBIndices = new short[triangleCount];
+			normalCIndices = new short[triangleCount];
+			collisionFlags = new short[triangleCount];
+			globalTriIndices = new int[triangleCount];
+			vertices = new float[triangleCount*9];
+			for (int i = 0; i < triangleCount; i++) {
+				lengths[i] = data.getFloat();
+				positionIndices[i] = data.getShort();
+				directionIndices[i] = data.getShort();
+				normalAIndices[i] = data.getShort();
+				normalBIndices[i] = data.getShort();
+				normalCIndices[i] = data.getShort();
+				collisionFlags[i] = data.getShort();
+				globalTriIndices[i] = data.getInt();
+				if(checkIndices) {
+					checkIndex(positionIndices[i], verticesCount, "position", i);
+					checkIndex(directionIndices[i], normalCount, "direction", i);
+					checkIndex(normalAIndices[i], normalCount, "normal A", i);
+					checkIndex(normalBIndices[i], normalCount, "normal B", i);
+					checkIndex(normalCIndices[i], normalCount, "normal C", i);
+				}
+				reconstructTriangle(i);
+			}
+			
+			if(!options.compactGeometry()) {
+				createObjectView();
+			}
+			
+			if(options.parsePolygonOctree()) {
+				int octreeOffset = startPos+offsetSection4;
+				octrees = new PolygonOctree[getRootCubeCount()];
+				for(int i=0; i<octrees.length; i++) {
+					octrees[i] = new PolygonOctree(data.getInt(octreeOffset+i*4), data, octreeOffset, 0);
+				}
+			}
+		}
+		
+		private static void checkIndex(short index, int count, String name, int triangle) {
+			if((index & 0xFFFF) >= count) {
+				throw new UnsupportedOperationException("Triangle "+triangle+" has "+name+" index "+(index & 0xFFFF)+", but there are only "+count);
+			}
+		}
+		
+		// same calculation as in Triangle, on the flat arrays
+		private void reconstructTriangle(int i) {
+			float length = lengths[i];
+			int p = (positionIndices[i] & 0xFFFF)*3;
+			int d = (directionIndices[i] & 0xFFFF)*3;
+			int a = (normalAIndices[i] & 0xFFFF)*3;
+			int b = (normalBIndices[i] & 0xFFFF)*3;
+			int c = (normalCIndices[i] & 0xFFFF)*3;
+			
+			// the cross products are stored in place of vertex 2 and 3 until they are scaled
+			int v = i*9;
+			Vector3f.crossProduct(normals, b, normals, d, vertices, v+3);
+			Vector3f.crossProduct(normals, a, normals, d, vertices, v+6);
+			float dotA = Vector3f.dotProduct(vertices, v+6, normals, c);
+			float dotB = Vector3f.dotProduct(vertices, v+3, normals, c);
+			float factorA = length / (dotA >= 0 ? Math.max(dotA, EPSILON) : Math.min(dotA, EPSILON));
+			float factorB = length / (dotB >= 0 ? Math.max(dotB, EPSILON) : Math.min(dotB, EPSILON));
+			
+			System.arraycopy(positions, p, vertices, v, 3);
+			Vector3f.addScaled(positions, p, vertices, v+3, factorB, vertices, v+3);
+			Vector3f.addScaled(positions, p, vertices, v+6, factorA, vertices, v+6);
+		}
+		
+		private synchronized void createObjectView() {
+			if(triangles != null) {
+				return;
+			}
+			Vector3f[] vertexs = new Vector3f[triangleCount*3];
+			Triangle[] triangles = new Triangle[triangleCount];
+			for (int i = 0; i < triangleCount; i++) {
+				triangles[i] = new Triangle(this, i);
 				vertexs[i*3] = triangles[i].vertex1;
 				vertexs[i*3+1] = triangles[i].vertex2;
 				vertexs[i*3+2] = triangles[i].vertex3;
@@ -164,94 +476,144 @@ public class KCLDecompress {
 				triangles[i].vIndex2 = i*3+1;
 				triangles[i].vIndex3 = i*3+2;
 			}
-			
-			// TODO finish and enable this
-			if(PARSE_POLYGON_OCTREE) {
-				int spatialNodeCount = ((~(int)mask[0] >> (int)shift[0]) + 1)
-		                 * ((~(int)mask[1] >> (int)shift[0]) + 1)
-		                 * ((~(int)mask[2] >> (int)shift[0]) + 1);
-				
-				PolygonOctree[] octrees = new PolygonOctree[spatialNodeCount];
-				int[] octreeOffsets = data.getInts(spatialNodeCount);
-				for(int i=0; i<spatialNodeCount; i++) {
-					octrees[i] = new PolygonOctree(octreeOffsets[i], data, startPos+offsetSection4);
-				}
+			this.vertexs = vertexs;
+			if(weldedIndices != null) {
+				applyWelding(triangles);
+			}
+			this.triangles = triangles;
+		}
+		
+		public int getRootCubeCount() {
+			return ((~mask[0] >> shift[0]) + 1)
+					* ((~mask[1] >> shift[0]) + 1)
+					* ((~mask[2] >> shift[0]) + 1);
+		}
+
+		public Triangle[] getTriangles() {
+			if(triangles == null) {
+				createObjectView();
 			}
+			return triangles;
 		}
 
 		public Vector3f[] getVerticies() {
+			if(triangles == null) {
+				createObjectView();
+			}
 			return vertexs;
 		}
 		
-		private void removeUnusedVerticies() {
-			if(vertexs == null) {
-				return;
-			}
-			ArrayList<Vector3f> verticies = new ArrayList<>(Arrays.asList(vertexs));
-			for(int i=0;i<verticies.size();i++) {
-				boolean used = false;
-				for(int j=0;j<triangles.length;j++) {
-					if(NintendoUtil.contains(triangles[j].getVerticies(),i)) {
-						used = true;
-						break;
-					}
-				}
-				
-				if(!used) {
-					prepareRemoveVertex(i);
-					verticies.remove(i);
-					i--;
+		// merges the vertices of all triangles, see VertexWelder
+		public void weld(float epsilon) {
+			VertexWelder welder = new VertexWelder(vertices, epsilon);
+			synchronized(this) {
+				weldedVertices = welder.vertices;
+				weldedIndices = welder.remap;
+				if(triangles != null) {
+					applyWelding(triangles);
 				}
 			}
-			vertexs = verticies.toArray(Vector3f[]::new);
 		}
 		
-		private void mergeDuplicateVerticies() {
-			if(vertexs == null) {
-				return;
+		private void applyWelding(Triangle[] triangles) {
+			Vector3f[] vertexs = new Vector3f[weldedVertices.length/3];
+			for(int i=0; i<vertexs.length; i++) {
+				vertexs[i] = new Vector3f(weldedVertices[i*3], weldedVertices[i*3+1], weldedVertices[i*3+2]);
 			}
-			ArrayList<Vector3f> verticies = new ArrayList<>(Arrays.asList(vertexs));
-			for(int i=0;i<verticies.size();i++) {
-				Vector3f v = verticies.get(i);
-				int firstIndex;
-				if(COMPRESSION_LEVEL == 1)
-					firstIndex = verticies.indexOf(verticies.get(i));
-				else if(COMPRESSION_LEVEL == 2)
-					firstIndex = verticies.stream().filter(v1 -> v.equals(v1)).mapToInt(v1 -> verticies.indexOf(v1)).findFirst().orElse(i);
-				else //unknown compression - assert none
-					firstIndex = i;
-				
-				if(firstIndex != i) {
-					prepareReplaceVertex(i, firstIndex);
-					prepareRemoveVertex(i);
-					verticies.remove(i);
-					i--;
-				}
+			for(int i=0; i<triangles.length; i++) {
+				triangles[i].vIndex1 = weldedIndices[i*3];
+				triangles[i].vIndex2 = weldedIndices[i*3+1];
+				triangles[i].vIndex3 = weldedIndices[i*3+2];
 			}
-			vertexs = verticies.toArray(Vector3f[]::new);
-		}
-		
-		private void prepareRemoveVertex(int index) {
-			Arrays.stream(triangles).forEach(face -> face.prepareRemoveVertex(index));
-		}
-		
-		private void prepareReplaceVertex(int index, int newIndex) {
-			Arrays.stream(triangles).forEach(face -> face.prepareReplaceVertex(index, newIndex));
+			this.vertexs = vertexs;
 		}
 
 		public HashMap<Short, ArrayList<Triangle>> getFacesByCollisionFlag() {
+			Triangle[] triangles = getTriangles();
+			FlagIndex index = getFlagIndex();
 			HashMap<Short, ArrayList<Triangle>> map = new HashMap<Short, ArrayList<Triangle>>();
-			Arrays.stream(triangles).forEach((face) -> {
-				ArrayList<Triangle> matchingColor = map.get(face.collisionFlags);
-				if (matchingColor == null) {
-					matchingColor = new ArrayList<Triangle>();
+			for(int f=0; f<index.flags.length; f++) {
+				ArrayList<Triangle> matchingColor = new ArrayList<Triangle>(index.starts[f+1] - index.starts[f]);
+				for(int i=index.starts[f]; i<index.starts[f+1]; i++) {
+					matchingColor.add(triangles[index.triangles[i]]);
 				}
-				matchingColor.add(face);
-				map.put(face.collisionFlags, matchingColor);
-			});
+				map.put(index.flags[f], matchingColor);
+			}
 
 			return map;
 		}
+		
+		public FlagIndex getFlagIndex() {
+			FlagIndex index = flagIndex;
+			if(index == null) {
+				synchronized(this) {
+					index = flagIndex;
+					if(index == null) {
+						flagIndex = index = new FlagIndex(collisionFlags);
+					}
+				}
+			}
+			return index;
+		}
+		
+		// triangle indices grouped by collision flag, built once per model
+		public static class FlagIndex {
+			
+			public final short[] flags; // sorted
+			public final int[] starts; // the triangles of flags[i] are triangles[starts[i]] until starts[i+1]
+			public final int[] triangles; // sorted for every flag
+			private final BitSet[] sets;
+			
+			private FlagIndex(short[] collisionFlags) {
+				short[] sorted = collisionFlags.clone();
+				Arrays.sort(sorted);
+				int distinct = 0;
+				for(int i=0; i<sorted.length; i++) {
+					if(i == 0 || sorted[i] != sorted[i-1]) {
+						sorted[distinct++] = sorted[i];
+					}
+				}
+				flags = Arrays.copyOf(sorted, distinct);
+				
+				// counting sort of the triangle indices by flag
+				int[] group = new int[collisionFlags.length];
+				starts = new int[distinct+1];
+				for(int i=0; i<collisionFlags.length; i++) {
+					group[i] = Arrays.binarySearch(flags, collisionFlags[i]);
+					starts[group[i]+1]++;
+				}
+				for(int f=0; f<distinct; f++) {
+					starts[f+1] += starts[f];
+				}
+				int[] next = Arrays.copyOf(starts, distinct);
+				triangles = new int[collisionFlags.length];
+				sets = new BitSet[distinct];
+				for(int f=0; f<distinct; f++) {
+					sets[f] = new BitSet(collisionFlags.length);
+				}
+				for(int i=0; i<collisionFlags.length; i++) {
+					triangles[next[group[i]]++] = i;
+					sets[group[i]].set(i);
+				}
+			}
+			
+			public int count(short flag) {
+				int f = Arrays.binarySearch(flags, flag);
+				return f < 0 ? 0 : starts[f+1] - starts[f];
+			}
+			public int[] getTriangles(short flag) {
+				int f = Arrays.binarySearch(flags, flag);
+				return f < 0 ? new int[0] : Arrays.copyOfRange(triangles, starts[f], starts[f+1]);
+			}
+			public BitSet getTriangleSet(short flag) {
+				BitSet set = set(flag);
+				return set == null ? new BitSet() : (BitSet) set.clone();
+			}
+			private BitSet set(short flag) {
+				int f = Arrays.binarySearch(flags, flag);
+				return f < 0 ? null : sets[f];
+			}
+		}
 
 		public static class NinTriangle {
 
@@ -274,6 +636,17 @@ public class KCLDecompress {
 				collisionFlags = data.getShort();
 				globalTriIndex = data.getInt();
 			}
+			
+			public NinTriangle(Model model, int index) {
+				length = model.lengths[index];
+				positionIndex = model.positionIndices[index] & 0xffff;
+				directionIndex = model.directionIndices[index] & 0xffff;
+				normalAIndex = model.normalAIndices[index] & 0xffff;
+				normalBIndex = model.normalBIndices[index] & 0xffff;
+				normalCIndex = model.normalCIndices[index] & 0xffff;
+				collisionFlags = model.collisionFlags[index];
+				globalTriIndex = model.globalTriIndices[index];
+			}
 
 		}
 
@@ -292,15 +665,29 @@ public class KCLDecompress {
 				collisionFlags = tri.collisionFlags;
 				globalTriIndex = tri.globalTriIndex;
 				
-				Vector3f crossA = normals[tri.normalAIndex].crossProduct(normals[tri.directionIndex]);
-				Vector3f crossB = normals[tri.normalBIndex].crossProduct(normals[tri.directionIndex]);
-				float dotA = crossA.dotProduct(normals[tri.normalCIndex]);
-				float dotB = crossB.dotProduct(normals[tri.normalCIndex]);
+				// the cross products are scaled in place
+				vertex3 = normals[tri.normalAIndex].crossProduct(normals[tri.directionIndex], new Vector3f(0, 0, 0));
+				vertex2 = normals[tri.normalBIndex].crossProduct(normals[tri.directionIndex], new Vector3f(0, 0, 0));
+				float dotA = vertex3.dotProduct(normals[tri.normalCIndex]);
+				float dotB = vertex2.dotProduct(normals[tri.normalCIndex]);
 				float factorA = tri.length / (dotA >= 0 ? Math.max(dotA, EPSILON) : Math.min(dotA, EPSILON));
 				float factorB = tri.length / (dotB >= 0 ? Math.max(dotB, EPSILON) : Math.min(dotB, EPSILON));
 				vertex1 = vertices[tri.positionIndex];
-				vertex2 = vertices[tri.positionIndex].add(crossB.multiply(factorB));
-				vertex3 = vertices[tri.positionIndex].add(crossA.multiply(factorA));
+				vertex1.addScaled(vertex2, factorB, vertex2);
+				vertex1.addScaled(vertex3, factorA, vertex3);
+			}
+			
+			// uses the vertices already reconstructed by the model
+			public Triangle(Model model, int index) {
+				ninTriangle = new NinTriangle(model, index);
+				collisionFlags = ninTriangle.collisionFlags;
+				globalTriIndex = ninTriangle.globalTriIndex;
+				
+				float[] v = model.vertices;
+				int i = index*9;
+				vertex1 = new Vector3f(v[i], v[i+1], v[i+2]);
+				vertex2 = new Vector3f(v[i+3], v[i+4], v[i+5]);
+				vertex3 = new Vector3f(v[i+6], v[i+7], v[i+8]);
 			}
 			
 			public Integer[] getVerticies() {
@@ -328,37 +715,285 @@ public class KCLDecompress {
 			public short[] triangleIndices;
 			public PolygonOctree[] children;
 			
-			public PolygonOctree(int key, ByteDataStream data, int baseOffset) {
-				int offset = baseOffset + (key & 0b00111111_11111111_11111111_11111111);
+			// every level halves the root cubes, so there are at most shift[0] levels below them.
+			// checked independent of the validation level, a key pointing back to an ancestor would recurse forever
+			public PolygonOctree(int key, ByteDataStream data, int baseOffset, int depth) {
+				if(depth > shift[0]) {
+					throw new UnsupportedOperationException("Polygon octree is deeper than "+shift[0]+" levels at key "+Integer.toHexString(key)+", its offsets are corrupt");
+				}
+				int offset = baseOffset + (key & 0b01111111_11111111_11111111_11111111);
 				if((key >>> 31) == 1) {
-					// TODO find right layout and assertPosition instead
-					data.seek(offset+2);
-					
-					List<Short> indices = new ArrayList<Short>();
-					short index;
-					while((index = data.getShort()) != ((short)0xffff)) {
-						indices.add(index);
+					// leaf keys point to the u16 right before the triangle list, which is terminated by 0xFFFF
+					int count = 0;
+					while(data.getShort(offset+2+count*2) != ((short)0xffff)) {
+						count++;
 					}
-					
-					triangleIndices = new short[indices.size()];
-					for(int i=0; i<triangleIndices.length; i++) {
-						triangleIndices[i] = indices.get(i);
+					triangleIndices = new short[count];
+					for(int i=0; i<count; i++) {
+						triangleIndices[i] = data.getShort(offset+2+i*2);
+						if(checkIndices && (triangleIndices[i] & 0xFFFF) >= triangleCount) {
+							throw new UnsupportedOperationException("Polygon octree leaf at "+offset+" has triangle index "+(triangleIndices[i] & 0xFFFF)+", but there are only "+triangleCount);
+						}
 					}
 				}
 				else {
-					// TODO find right layout and assertPosition instead
-					data.seek(offset);
-					
-					int[] keys = data.getInts(8);
-
+					// branch keys point to the 8 keys of the children, which are relative to their own block
 					children = new PolygonOctree[8];
 					for(int i=0; i<8; i++) {
-						children[i] = new PolygonOctree(keys[i], data, offset);
+						children[i] = new PolygonOctree(data.getInt(offset+i*4), data, offset, depth+1);
+					}
+				}
+			}
+		}
+		
+		private static final short[] NO_TRIANGLES = new short[0];
+		
+		// triangles in the octree cube containing the point, as listed in the file
+		public short[] getTrianglesAt(float x, float y, float z) {
+			if(octrees == null || x < minCoordinate.x || y < minCoordinate.y || z < minCoordinate.z) {
+				return NO_TRIANGLES;
+			}
+			int ix = (int) (x - minCoordinate.x);
+			int iy = (int) (y - minCoordinate.y);
+			int iz = (int) (z - minCoordinate.z);
+			if((ix & mask[0]) != 0 || (iy & mask[1]) != 0 || (iz & mask[2]) != 0) {
+				return NO_TRIANGLES;
+			}
+			
+			int s = shift[0];
+			PolygonOctree node = octrees[((iz >> s) << shift[2]) | ((iy >> s) << shift[1]) | (ix >> s)];
+			while(node.children != null) {
+				s--;
+				node = node.children[((iz >> s) & 1) << 2 | ((iy >> s) & 1) << 1 | ((ix >> s) & 1)];
+			}
+			return node.triangleIndices;
+		}
+		
+		public RayHit rayCast(Vector3f origin, Vector3f direction, float maxDistance) {
+			return rayCast(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z, maxDistance);
+		}
+		// distance is measured in multiples of the direction, returns null if nothing is hit
+		public RayHit rayCast(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance) {
+			Ray ray = new Ray();
+			ray.set(ox, oy, oz, dx, dy, dz, maxDistance);
+			rayCast(ray);
+			return ray.triangle < 0 ? null : new RayHit(ray.triangle, ray.distance);
+		}
+		// only hits closer than the current ray distance are taken, so one ray can be cast against several models.
+		// returns true if this model has the new closest hit
+		public boolean rayCast(Ray ray) {
+			int previous = ray.triangle;
+			ray.triangle = -1;
+			if(octrees == null) {
+				for(int i=0; i<triangleCount; i++) {
+					ray.test(vertices, i);
+				}
+			} else {
+				// only the root cubes around the part of the ray inside the model
+				float maxX = minCoordinate.x + (~mask[0]+1), maxY = minCoordinate.y + (~mask[1]+1), maxZ = minCoordinate.z + (~mask[2]+1);
+				boolean inside = Intersections.insideSlab(ray.ox, ray.invDx, minCoordinate.x, maxX)
+						&& Intersections.insideSlab(ray.oy, ray.invDy, minCoordinate.y, maxY)
+						&& Intersections.insideSlab(ray.oz, ray.invDz, minCoordinate.z, maxZ);
+				float enter = 0, exit = ray.distance;
+				if(!Float.isInfinite(ray.invDx)) {
+					float t1 = (minCoordinate.x-ray.ox)*ray.invDx, t2 = (maxX-ray.ox)*ray.invDx;
+					enter = Math.max(enter, Math.min(t1, t2));
+					exit = Math.min(exit, Math.max(t1, t2));
+				}
+				if(!Float.isInfinite(ray.invDy)) {
+					float t1 = (minCoordinate.y-ray.oy)*ray.invDy, t2 = (maxY-ray.oy)*ray.invDy;
+					enter = Math.max(enter, Math.min(t1, t2));
+					exit = Math.min(exit, Math.max(t1, t2));
+				}
+				if(!Float.isInfinite(ray.invDz)) {
+					float t1 = (minCoordinate.z-ray.oz)*ray.invDz, t2 = (maxZ-ray.oz)*ray.invDz;
+					enter = Math.max(enter, Math.min(t1, t2));
+					exit = Math.min(exit, Math.max(t1, t2));
+				}
+				if(inside && enter <= exit) {
+					int s = shift[0];
+					int countX = 1 << shift[1], countY = 1 << (shift[2]-shift[1]), countZ = octrees.length >> shift[2];
+					int loX = rootCube(Math.min(ray.ox + ray.dx*enter, ray.ox + ray.dx*exit) - minCoordinate.x, s, countX, -1);
+					int hiX = rootCube(Math.max(ray.ox + ray.dx*enter, ray.ox + ray.dx*exit) - minCoordinate.x, s, countX, 1);
+					int loY = rootCube(Math.min(ray.oy + ray.dy*enter, ray.oy + ray.dy*exit) - minCoordinate.y, s, countY, -1);
+					int hiY = rootCube(Math.max(ray.oy + ray.dy*enter, ray.oy + ray.dy*exit) - minCoordinate.y, s, countY, 1);
+					int loZ = rootCube(Math.min(ray.oz + ray.dz*enter, ray.oz + ray.dz*exit) - minCoordinate.z, s, countZ, -1);
+					int hiZ = rootCube(Math.max(ray.oz + ray.dz*enter, ray.oz + ray.dz*exit) - minCoordinate.z, s, countZ, 1);
+					// front to back, so the first hit can skip the cubes behind it
+					for(int iz=0; iz<=hiZ-loZ; iz++) {
+						int z = ray.dz < 0 ? hiZ-iz : loZ+iz;
+						for(int iy=0; iy<=hiY-loY; iy++) {
+							int y = ray.dy < 0 ? hiY-iy : loY+iy;
+							for(int ix=0; ix<=hiX-loX; ix++) {
+								int x = ray.dx < 0 ? hiX-ix : loX+ix;
+								rayCast(octrees[(z << shift[2]) | (y << shift[1]) | x], x << s, y << s, z << s, s, ray);
+							}
+						}
 					}
 				}
 			}
+			if(ray.triangle < 0) {
+				ray.triangle = previous;
+				return false;
+			}
+			ray.model = this;
+			return true;
+		}
+		
+		// root cube of a coordinate relative to minCoordinate, moved a bit in the given direction against rounding errors
+		private static int rootCube(float offset, int s, int count, int direction) {
+			int cube = ((int) Math.floor(offset + direction*(1 << s)*0.0625f)) >> s;
+			return Math.max(0, Math.min(count-1, cube));
+		}
+		
+		private void rayCast(PolygonOctree node, int x, int y, int z, int s, Ray ray) {
+			float size = 1 << s;
+			float minX = minCoordinate.x + x, minY = minCoordinate.y + y, minZ = minCoordinate.z + z;
+			if(Intersections.rayAabb(ray.ox, ray.oy, ray.oz, ray.invDx, ray.invDy, ray.invDz, ray.distance,
+					minX, minY, minZ, minX+size, minY+size, minZ+size) < 0) {
+				return;
+			}
+			if(node.children == null) {
+				for(short index : node.triangleIndices) {
+					ray.test(vertices, index & 0xFFFF);
+				}
+				return;
+			}
+			int half = 1 << (s-1);
+			for(int i=0; i<8; i++) {
+				int c = i ^ ray.childOrder;
+				rayCast(node.children[c], x + ((c & 1) != 0 ? half : 0), y + ((c & 2) != 0 ? half : 0), z + ((c & 4) != 0 ? half : 0), s-1, ray);
+			}
+		}
+		
+		// reusable ray state, holds the closest hit until set is called again
+		public static class Ray {
+			float ox, oy, oz, dx, dy, dz, invDx, invDy, invDz;
+			private int childOrder; // octree children are visited in the order i ^ childOrder (front to back)
+			private int[] stack; // traversal scratch of KCLBVH, kept with the ray so casts don't allocate
+			public float distance;
+			public int triangle = -1; // index in model, -1 if nothing was hit
+			public Model model;
+			
+			public void set(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance) {
+				this.ox = ox; this.oy = oy; this.oz = oz;
+				this.dx = dx; this.dy = dy; this.dz = dz;
+				invDx = 1 / dx; invDy = 1 / dy; invDz = 1 / dz;
+				childOrder = (dx < 0 ? 1 : 0) | (dy < 0 ? 2 : 0) | (dz < 0 ? 4 : 0);
+				distance = maxDistance;
+				triangle = -1;
+				model = null;
+			}
+			
+			int[] stack(int size) {
+				if(stack == null || stack.length < size) {
+					stack = new int[size];
+				}
+				return stack;
+			}
+			
+			void test(float[] vertices, int index) {
+				int v = index*9;
+				float hit = Intersections.rayTriangle(ox, oy, oz, dx, dy, dz, distance,
+						vertices[v], vertices[v+1], vertices[v+2], vertices[v+3], vertices[v+4], vertices[v+5], vertices[v+6], vertices[v+7], vertices[v+8]);
+				if(hit >= 0 && (hit < distance || triangle < 0)) {
+					distance = hit;
+					triangle = index;
+				}
+			}
+		}
+		
+		// indices of all triangles touching the sphere, sorted
+		public int[] overlapSphere(float cx, float cy, float cz, float radius) {
+			return overlapSphere(null, cx, cy, cz, radius);
+		}
+		// only triangles with the collision flag
+		public int[] overlapSphere(short flag, float cx, float cy, float cz, float radius) {
+			BitSet set = getFlagIndex().set(flag);
+			return set == null ? new int[0] : overlapSphere(set, cx, cy, cz, radius);
+		}
+		private int[] overlapSphere(BitSet filter, float cx, float cy, float cz, float radius) {
+			BitSet candidates = collectCandidates((minX, minY, minZ, maxX, maxY, maxZ) ->
+					Intersections.sphereAabb(cx, cy, cz, radius, minX, minY, minZ, maxX, maxY, maxZ));
+			if(filter != null) {
+				candidates.and(filter);
+			}
+			return candidates.stream().filter(i -> {
+				int v = i*9;
+				return Intersections.triangleSphere(vertices[v], vertices[v+1], vertices[v+2], vertices[v+3], vertices[v+4], vertices[v+5],
+						vertices[v+6], vertices[v+7], vertices[v+8], cx, cy, cz, radius);
+			}).toArray();
+		}
+		
+		// indices of all triangles touching the box, sorted
+		public int[] overlapAabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+			return overlapAabb(null, minX, minY, minZ, maxX, maxY, maxZ);
+		}
+		// only triangles with the collision flag
+		public int[] overlapAabb(short flag, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+			BitSet set = getFlagIndex().set(flag);
+			return set == null ? new int[0] : overlapAabb(set, minX, minY, minZ, maxX, maxY, maxZ);
+		}
+		private int[] overlapAabb(BitSet filter, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+			BitSet candidates = collectCandidates((cubeMinX, cubeMinY, cubeMinZ, cubeMaxX, cubeMaxY, cubeMaxZ) ->
+					Intersections.aabbAabb(minX, minY, minZ, maxX, maxY, maxZ, cubeMinX, cubeMinY, cubeMinZ, cubeMaxX, cubeMaxY, cubeMaxZ));
+			if(filter != null) {
+				candidates.and(filter);
+			}
+			return candidates.stream().filter(i -> {
+				int v = i*9;
+				return Intersections.triangleAabb(vertices[v], vertices[v+1], vertices[v+2], vertices[v+3], vertices[v+4], vertices[v+5],
+						vertices[v+6], vertices[v+7], vertices[v+8], minX, minY, minZ, maxX, maxY, maxZ);
+			}).toArray();
+		}
+		
+		private interface CubeFilter {
+			boolean overlaps(float minX, float minY, float minZ, float maxX, float maxY, float maxZ);
+		}
+		
+		private BitSet collectCandidates(CubeFilter filter) {
+			BitSet candidates = new BitSet(triangleCount);
+			if(octrees == null) {
+				candidates.set(0, triangleCount);
+			} else {
+				for(int i=0; i<octrees.length; i++) {
+					collectCandidates(octrees[i], rootCubeX(i), rootCubeY(i), rootCubeZ(i), shift[0], filter, candidates);
+				}
+			}
+			return candidates;
+		}
+		
+		private void collectCandidates(PolygonOctree node, int x, int y, int z, int s, CubeFilter filter, BitSet candidates) {
+			float size = 1 << s;
+			float minX = minCoordinate.x + x, minY = minCoordinate.y + y, minZ = minCoordinate.z + z;
+			if(!filter.overlaps(minX, minY, minZ, minX+size, minY+size, minZ+size)) {
+				return;
+			}
+			if(node.children == null) {
+				for(short index : node.triangleIndices) {
+					candidates.set(index & 0xFFFF);
+				}
+				return;
+			}
+			int half = 1 << (s-1);
+			for(int i=0; i<8; i++) {
+				collectCandidates(node.children[i], x + ((i & 1) != 0 ? half : 0), y + ((i & 2) != 0 ? half : 0), z + ((i & 4) != 0 ? half : 0), s-1, filter, candidates);
+			}
+		}
+		
+		// position of a root cube relative to minCoordinate
+		private int rootCubeX(int index) {
+			return (index & ((1 << shift[1]) - 1)) << shift[0];
+		}
+		private int rootCubeY(int index) {
+			return ((index >> shift[1]) & ((1 << (shift[2] - shift[1])) - 1)) << shift[0];
+		}
+		private int rootCubeZ(int index) {
+			return (index >> shift[2]) << shift[0];
 		}
 
 	}
+	
+	public record RayHit(int triangleIndex, float distance) {}
 
 }
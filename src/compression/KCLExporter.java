@@ -0,0 +1,395 @@
+package compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import compression.KCLDecompress.Model;
+import compression.KCLDecompress.Model.FlagIndex;
+import util.VertexWelder;
+
+// exports the collision of a KCL file as OBJ or binary glTF, straight from the flat arrays of the models.
+// everything goes through one reusable buffer, models are decoded (and welded) one after another without being
+// cached in the KCLDecompress. GLB needs all counts and bounds before the binary chunk, so every model is prepared twice.
+// triangles are grouped by collision flag, every flag gets its own material with a stable color.
+// instances are not thread-safe.
+public class KCLExporter {
+
+	public enum Format {
+		OBJ(".obj"),
+		GLB(".glb");
+
+		public final String extension;
+
+		private Format(String extension) {
+			this.extension = extension;
+		}
+	}
+
+	private static final int GLB_MAGIC = 0x46546C67; // glTF
+	private static final int CHUNK_JSON = 0x4E4F534A;
+	private static final int CHUNK_BIN = 0x004E4942;
+
+	private final Format format;
+	private final boolean weld;
+	private final float weldEpsilon;
+	private final ByteBuffer buffer;
+
+	private WritableByteChannel out;
+	private final BitSet usedFlags = new BitSet(0x10000);
+
+	public KCLExporter(Format format) {
+		this(format, false, 0, 1 << 16);
+	}
+	// weld: merge vertices of models that weren't welded while decoding, see VertexWelder
+	public KCLExporter(Format format, boolean weld, float weldEpsilon, int bufferSize) {
+		this.format = format;
+		this.weld = weld;
+		this.weldEpsilon = weldEpsilon;
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 256)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public void export(KCLDecompress kcl, OutputStream out) throws IOException {
+		export(kcl, Channels.newChannel(out), null);
+	}
+	public void export(KCLDecompress kcl, WritableByteChannel out) throws IOException {
+		export(kcl, out, null);
+	}
+	// OBJ files get their materials in a .mtl file next to them
+	public void export(KCLDecompress kcl, Path target) throws IOException {
+		String materialLibrary = null;
+		if(format == Format.OBJ) {
+			materialLibrary = materialLibraryName(target.getFileName().toString());
+		}
+		try(FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			export(kcl, channel, materialLibrary);
+		}
+		if(materialLibrary != null) {
+			try(FileChannel channel = FileChannel.open(target.resolveSibling(materialLibrary), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				writeMaterials(channel);
+			}
+		}
+	}
+
+	private static String materialLibraryName(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		return (dot > 0 ? fileName.substring(0, dot) : fileName) + ".mtl";
+	}
+
+	private void export(KCLDecompress kcl, WritableByteChannel out, String materialLibrary) throws IOException {
+		this.out = out;
+		buffer.clear();
+		usedFlags.clear();
+		try {
+			if(format == Format.OBJ) {
+				writeOBJ(kcl, materialLibrary);
+			} else {
+				writeGLB(kcl);
+			}
+			flushBuffer();
+		} finally {
+			this.out = null;
+		}
+	}
+
+	// the materials of all flags used by the last OBJ export
+	public void writeMaterials(WritableByteChannel out) throws IOException {
+		this.out = out;
+		buffer.clear();
+		try {
+			for(int flag = usedFlags.nextSetBit(0); flag >= 0; flag = usedFlags.nextSetBit(flag+1)) {
+				float[] color = flagColor((short) flag);
+				write("newmtl ");
+				write(materialName((short) flag));
+				write("\nKd ");
+				writeFloat(color[0]);
+				write(' ');
+				writeFloat(color[1]);
+				write(' ');
+				writeFloat(color[2]);
+				write("\n\n");
+			}
+			flushBuffer();
+		} finally {
+			this.out = null;
+		}
+	}
+
+	// stable color for every flag, the hues are spread with the golden ratio
+	public static float[] flagColor(short flag) {
+		float hue = ((flag & 0xFFFF) * 0.618034f) % 1 * 6;
+		int sector = (int) hue;
+		float f = hue - sector;
+		float v = 0.95f, p = v * 0.35f, q = v * (1 - 0.65f * f), t = v * (1 - 0.65f * (1 - f));
+		return switch(sector) {
+			case 0 -> new float[] { v, t, p };
+			case 1 -> new float[] { q, v, p };
+			case 2 -> new float[] { p, v, t };
+			case 3 -> new float[] { p, q, v };
+			case 4 -> new float[] { t, p, v };
+			default -> new float[] { v, p, q };
+		};
+	}
+
+	public static String materialName(short flag) {
+		String hex = Integer.toHexString(flag & 0xFFFF);
+		return "flag_" + "0000".substring(hex.length()) + hex;
+	}
+
+
+	// vertices of a model and 3 indices into them per triangle, indices are null if every triangle has its own vertices
+	private static class Geometry {
+		private final float[] vertices;
+		private final int[] indices;
+
+		private Geometry(float[] vertices, int[] indices) {
+			this.vertices = vertices;
+			this.indices = indices;
+		}
+
+		private int index(int triangle, int corner) {
+			return indices == null ? triangle*3+corner : indices[triangle*3+corner];
+		}
+	}
+
+	private Geometry geometry(Model model) {
+		if(model.weldedVertices != null) {
+			return new Geometry(model.weldedVertices, model.weldedIndices);
+		}
+		if(weld) {
+			VertexWelder welder = new VertexWelder(model.vertices, weldEpsilon);
+			return new Geometry(welder.vertices, welder.remap);
+		}
+		return new Geometry(model.vertices, null);
+	}
+
+
+	private void writeOBJ(KCLDecompress kcl, String materialLibrary) throws IOException {
+		if(materialLibrary != null) {
+			write("mtllib ");
+			write(materialLibrary);
+			write('\n');
+		}
+		long vertexOffset = 1;
+		for(int m=0; m<kcl.models.length; m++) {
+			Model model = kcl.decodeModel(m);
+			Geometry geometry = geometry(model);
+			write("o model_");
+			writeLong(m);
+			write('\n');
+			float[] vertices = geometry.vertices;
+			for(int i=0; i<vertices.length; i+=3) {
+				write("v ");
+				writeFloat(vertices[i]);
+				write(' ');
+				writeFloat(vertices[i+1]);
+				write(' ');
+				writeFloat(vertices[i+2]);
+				write('\n');
+			}
+
+			FlagIndex index = model.getFlagIndex();
+			for(int f=0; f<index.flags.length; f++) {
+				short flag = index.flags[f];
+				usedFlags.set(flag & 0xFFFF);
+				write("g model_");
+				writeLong(m);
+				write('_');
+				write(materialName(flag));
+				write("\nusemtl ");
+				write(materialName(flag));
+				write('\n');
+				for(int i=index.starts[f]; i<index.starts[f+1]; i++) {
+					int triangle = index.triangles[i];
+					write('f');
+					for(int corner=0; corner<3; corner++) {
+						write(' ');
+						writeLong(vertexOffset + geometry.index(triangle, corner));
+					}
+					write('\n');
+				}
+			}
+			vertexOffset += vertices.length / 3;
+		}
+	}
+
+
+	// the JSON chunk has to contain all counts and bounds: the first pass writes it, the second one decodes the models again
+	// for the binary chunk. per model it contains the positions followed by the indices of all its triangles, grouped by flag.
+	private void writeGLB(KCLDecompress kcl) throws IOException {
+		StringBuilder meshes = new StringBuilder(), nodes = new StringBuilder(), bufferViews = new StringBuilder(), accessors = new StringBuilder();
+		int[] materials = new int[0x10000];
+		StringBuilder materialList = new StringBuilder();
+		int materialCount = 0, meshCount = 0, viewCount = 0, accessorCount = 0;
+		long binaryLength = 0;
+		for(int m=0; m<kcl.models.length; m++) {
+			Model model = kcl.decodeModel(m);
+			if(model.triangleCount == 0) {
+				continue;
+			}
+			Geometry geometry = geometry(model);
+			float[] vertices = geometry.vertices;
+			float[] bounds = { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+					Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+			for(int i=0; i<vertices.length; i+=3) {
+				for(int a=0; a<3; a++) {
+					bounds[a] = Math.min(bounds[a], vertices[i+a]);
+					bounds[3+a] = Math.max(bounds[3+a], vertices[i+a]);
+				}
+			}
+
+			int vertexCount = vertices.length / 3;
+			separator(bufferViews).append("{\"buffer\":0,\"byteOffset\":").append(binaryLength)
+					.append(",\"byteLength\":").append(vertexCount*12L).append(",\"target\":34962}");
+			int positionView = viewCount++;
+			binaryLength += vertexCount*12L;
+			separator(bufferViews).append("{\"buffer\":0,\"byteOffset\":").append(binaryLength)
+					.append(",\"byteLength\":").append(model.triangleCount*12L).append(",\"target\":34963}");
+			int indexView = viewCount++;
+			binaryLength += model.triangleCount*12L;
+
+			separator(accessors).append("{\"bufferView\":").append(positionView).append(",\"componentType\":5126,\"count\":").append(vertexCount)
+					.append(",\"type\":\"VEC3\",\"min\":[").append(bounds[0]).append(',').append(bounds[1]).append(',').append(bounds[2])
+					.append("],\"max\":[").append(bounds[3]).append(',').append(bounds[4]).append(',').append(bounds[5]).append("]}");
+			int positionAccessor = accessorCount++;
+
+			FlagIndex index = model.getFlagIndex();
+			separator(meshes).append("{\"name\":\"model_").append(m).append("\",\"primitives\":[");
+			for(int f=0; f<index.flags.length; f++) {
+				short flag = index.flags[f];
+				if(materials[flag & 0xFFFF] == 0) {
+					float[] color = flagColor(flag);
+					separator(materialList).append("{\"name\":\"").append(materialName(flag)).append("\",\"pbrMetallicRoughness\":{\"baseColorFactor\":[")
+							.append(color[0]).append(',').append(color[1]).append(',').append(color[2]).append(",1],\"metallicFactor\":0}}");
+					materials[flag & 0xFFFF] = ++materialCount;
+				}
+				int count = index.starts[f+1] - index.starts[f];
+				separator(accessors).append("{\"bufferView\":").append(indexView).append(",\"byteOffset\":").append(index.starts[f]*12L)
+						.append(",\"componentType\":5125,\"count\":").append(count*3).append(",\"type\":\"SCALAR\"}");
+				if(f != 0) {
+					meshes.append(',');
+				}
+				meshes.append("{\"attributes\":{\"POSITION\":").append(positionAccessor).append("},\"indices\":").append(accessorCount++)
+						.append(",\"material\":").append(materials[flag & 0xFFFF]-1).append('}');
+			}
+			meshes.append("]}");
+			separator(nodes).append("{\"name\":\"model_").append(m).append("\",\"mesh\":").append(meshCount++).append('}');
+		}
+
+		StringBuilder json = new StringBuilder("{\"asset\":{\"version\":\"2.0\",\"generator\":\"NintendoCompressions KCLExporter\"}");
+		if(meshCount > 0) {
+			json.append(",\"scene\":0,\"scenes\":[{\"nodes\":[");
+			for(int i=0; i<meshCount; i++) {
+				if(i != 0) {
+					json.append(',');
+				}
+				json.append(i);
+			}
+			json.append("]}],\"nodes\":[").append(nodes).append("],\"meshes\":[").append(meshes).append("],\"materials\":[").append(materialList)
+					.append("],\"accessors\":[").append(accessors).append("],\"bufferViews\":[").append(bufferViews)
+					.append("],\"buffers\":[{\"byteLength\":").append(binaryLength).append("}]");
+		}
+		json.append('}');
+		while(json.length() % 4 != 0) {
+			json.append(' ');
+		}
+
+		long totalLength = 12 + 8 + json.length() + (binaryLength > 0 ? 8 + binaryLength : 0);
+		if(totalLength > 0xFFFFFFFFL) {
+			throw new UnsupportedOperationException("GLB files are limited to 4GB, this export would need "+totalLength+" bytes");
+		}
+		ensure(20);
+		buffer.putInt(GLB_MAGIC);
+		buffer.putInt(2);
+		buffer.putInt((int) totalLength);
+		buffer.putInt(json.length());
+		buffer.putInt(CHUNK_JSON);
+		write(json);
+		if(binaryLength == 0) {
+			return;
+		}
+		ensure(8);
+		buffer.putInt((int) binaryLength);
+		buffer.putInt(CHUNK_BIN);
+		for(int m=0; m<kcl.models.length; m++) {
+			Model model = kcl.decodeModel(m);
+			if(model.triangleCount == 0) {
+				continue;
+			}
+			Geometry geometry = geometry(model);
+			for(float v : geometry.vertices) {
+				ensure(4);
+				buffer.putFloat(v);
+			}
+			FlagIndex index = model.getFlagIndex();
+			for(int i=0; i<index.triangles.length; i++) {
+				int triangle = index.triangles[i];
+				ensure(12);
+				buffer.putInt(geometry.index(triangle, 0));
+				buffer.putInt(geometry.index(triangle, 1));
+				buffer.putInt(geometry.index(triangle, 2));
+			}
+		}
+	}
+
+	private static StringBuilder separator(StringBuilder sb) {
+		return sb.length() == 0 ? sb : sb.append(',');
+	}
+
+
+	private void writeFloat(float f) throws IOException {
+		write(Float.toString(f));
+	}
+
+	private void writeLong(long value) throws IOException {
+		ensure(20);
+		if(value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int digits = 1;
+		for(long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		int position = buffer.position();
+		for(int i=position+digits-1; i>=position; i--) {
+			buffer.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(position + digits);
+	}
+
+	// only ASCII is written
+	private void write(CharSequence s) throws IOException {
+		for(int i=0; i<s.length(); i++) {
+			write(s.charAt(i));
+		}
+	}
+
+	private void write(char c) throws IOException {
+		ensure(1);
+		buffer.put((byte) c);
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
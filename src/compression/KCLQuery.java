@@ -0,0 +1,18 @@
+package compression;
+
+import compression.KCLDecompress.Model.Ray;
+
+// spatial queries on the triangles of one KCL model, answered by the polygon octree of the Model or by a KCLBVH.
+// triangle indices are the ones of the model
+public interface KCLQuery {
+
+	// only hits closer than the current ray distance are taken, returns true if this query found the new closest hit
+	boolean rayCast(Ray ray);
+
+	// indices of all triangles touching the sphere, sorted
+	int[] overlapSphere(float cx, float cy, float cz, float radius);
+
+	// indices of all triangles touching the box, sorted
+	int[] overlapAabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ);
+
+}
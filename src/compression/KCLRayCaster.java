@@ -0,0 +1,146 @@
+package compression;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import compression.KCLDecompress.Model.Ray;
+import util.Intersections;
+
+// casts batches of rays against the models of a KCL file, split across a fork/join pool.
+// with the file, every ray walks the model octree front to back and is only cast against the models of the cubes
+// it passes, cubes behind the closest hit so far are skipped. without it, every ray is cast against every query.
+// rays are 6 floats each (origin xyz, direction xyz), distances are measured in multiples of the direction.
+// every batch reuses one Ray, so nothing is allocated per ray.
+public class KCLRayCaster {
+
+	private static final int BATCH_SIZE = 512;
+
+	private final KCLDecompress kcl; // null if the queries aren't indexed by a model octree
+	private final KCLQuery[] queries;
+	private final ForkJoinPool pool;
+
+	public KCLRayCaster(KCLDecompress kcl) {
+		this(kcl, kcl.getModels(), ForkJoinPool.commonPool());
+	}
+	// queries[i] answers for model i of the file, e.g. a KCLBVH for every model
+	public KCLRayCaster(KCLDecompress kcl, KCLQuery[] queries, ForkJoinPool pool) {
+		if(queries.length != kcl.models.length) {
+			throw new UnsupportedOperationException("Expected one query per model ("+kcl.models.length+"), got "+queries.length);
+		}
+		this.kcl = kcl;
+		this.queries = queries;
+		this.pool = pool;
+	}
+	// queries without a model octree, every ray is cast against all of them
+	public KCLRayCaster(KCLQuery[] queries, ForkJoinPool pool) {
+		this.kcl = null;
+		this.queries = queries;
+		this.pool = pool;
+	}
+
+	// misses get distance -1, globalTriIndex -1 and collision flags 0. unneeded outputs can be null
+	public void cast(float[] rays, float maxDistance, float[] distances, int[] globalTriIndices, short[] collisionFlags) {
+		if(rays.length % 6 != 0) {
+			throw new UnsupportedOperationException("Expected 6 floats per ray, got "+rays.length);
+		}
+		int count = rays.length / 6;
+		if((distances != null && distances.length < count) || (globalTriIndices != null && globalTriIndices.length < count)
+				|| (collisionFlags != null && collisionFlags.length < count)) {
+			throw new UnsupportedOperationException("Output arrays are smaller than the number of rays: "+count);
+		}
+		pool.invoke(new CastTask(rays, maxDistance, distances, globalTriIndices, collisionFlags, 0, count));
+	}
+
+	private void cast(float[] rays, float maxDistance, float[] distances, int[] globalTriIndices, short[] collisionFlags, int from, int to) {
+		Ray ray = new Ray();
+		int[] tested = kcl == null ? null : new int[queries.length]; // number of the last ray cast against a model
+		for(int i=from; i<to; i++) {
+			int r = i*6;
+			ray.set(rays[r], rays[r+1], rays[r+2], rays[r+3], rays[r+4], rays[r+5], maxDistance);
+			if(kcl == null) {
+				for(KCLQuery query : queries) {
+					query.rayCast(ray);
+				}
+			} else {
+				int childOrder = (ray.dx < 0 ? 1 : 0) | (ray.dy < 0 ? 2 : 0) | (ray.dz < 0 ? 4 : 0);
+				castModels(ray, childOrder, 0, 0, 0, 0, kcl.coordShift[0], kcl.coordShift[1], kcl.coordShift[2], tested, i+1);
+			}
+			boolean hit = ray.triangle >= 0;
+			if(distances != null) {
+				distances[i] = hit ? ray.distance : -1;
+			}
+			if(globalTriIndices != null) {
+				globalTriIndices[i] = hit ? ray.model.globalTriIndices[ray.triangle] : -1;
+			}
+			if(collisionFlags != null) {
+				collisionFlags[i] = hit ? ray.model.collisionFlags[ray.triangle] : 0;
+			}
+		}
+	}
+
+	// children of a model octree block in front to back order, same layout as KCLDecompress.modelIndexAt
+	private void castModels(Ray ray, int childOrder, int block, int x, int y, int z, int sx, int sy, int sz, int[] tested, int stamp) {
+		if(sx <= 0 || sy <= 0 || sz <= 0) {
+			throw new UnsupportedOperationException("Model octree is deeper than the coordinate shift allows");
+		}
+		sx--;
+		sy--;
+		sz--;
+		for(int c=0; c<8; c++) {
+			int i = c ^ childOrder;
+			int key = kcl.modelOctreeKeys[block+i];
+			if((key >>> 30) == 0b11) {
+				continue;
+			}
+			int cx = x + ((i & 1) << sx), cy = y + (((i >> 1) & 1) << sy), cz = z + ((i >> 2) << sz);
+			float minX = kcl.minValues.x + cx, minY = kcl.minValues.y + cy, minZ = kcl.minValues.z + cz;
+			if(Intersections.rayAabb(ray.ox, ray.oy, ray.oz, ray.invDx, ray.invDy, ray.invDz, ray.distance,
+					minX, minY, minZ, minX + (1 << sx), minY + (1 << sy), minZ + (1 << sz)) < 0) {
+				continue;
+			}
+			if((key >>> 30) == 0b10) {
+				int model = key & 0x3FFFFFFF;
+				if(tested[model] != stamp) {
+					tested[model] = stamp;
+					queries[model].rayCast(ray);
+				}
+			} else {
+				castModels(ray, childOrder, block + (key & 0x3FFFFFFF), cx, cy, cz, sx, sy, sz, tested, stamp);
+			}
+		}
+	}
+
+	private class CastTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] rays;
+		private final float maxDistance;
+		private final float[] distances;
+		private final int[] globalTriIndices;
+		private final short[] collisionFlags;
+		private final int from, to;
+
+		private CastTask(float[] rays, float maxDistance, float[] distances, int[] globalTriIndices, short[] collisionFlags, int from, int to) {
+			this.rays = rays;
+			this.maxDistance = maxDistance;
+			this.distances = distances;
+			this.globalTriIndices = globalTriIndices;
+			this.collisionFlags = collisionFlags;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= BATCH_SIZE) {
+				cast(rays, maxDistance, distances, globalTriIndices, collisionFlags, from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new CastTask(rays, maxDistance, distances, globalTriIndices, collisionFlags, from, middle),
+					new CastTask(rays, maxDistance, distances, globalTriIndices, collisionFlags, middle, to));
+		}
+	}
+
+}
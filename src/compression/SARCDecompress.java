@@ -1,11 +1,13 @@
 package compression;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
 import util.ByteDataStream;
 import util.ByteDataStream.StringType;
+import util.ValidationLevel;
 
 public class SARCDecompress {
 	
@@ -22,12 +24,20 @@ public class SARCDecompress {
 	// most common alignment: 4096
 	// pass -1 for auto-detecting alignment
 	public SARCDecompress(byte[] dataArray, int alignment) {
-		ByteDataStream data = new ByteDataStream(dataArray);
+		this(ByteBuffer.wrap(dataArray), alignment);
+	}
+	// e.g. a mapped file, only the contained files are copied
+	public SARCDecompress(ByteBuffer dataBuffer, int alignment) {
+		this(dataBuffer, alignment, ValidationLevel.STRICT);
+	}
+	public SARCDecompress(ByteBuffer dataBuffer, int alignment, ValidationLevel validation) {
+		ByteDataStream data = new ByteDataStream(dataBuffer);
+		data.validation(validation);
 		
 		data.assertMagic("SARC");
 		data.expectShort(0x14, "SARC header size");
 		data.expectByteOrder(ByteOrder.BIG_ENDIAN);
-		data.expectInt(dataArray.length, "mismatch in file size");
+		data.expectInt(data.size(), "mismatch in file size");
 		
 		int dataOffset = data.getInt();
 		
@@ -47,7 +57,7 @@ public class SARCDecompress {
 		}
 		
 		for(int i=0; i<sfat.nodes.length; i++) {
-			sfat.nodes[i].setFileName(sfnt.filenames[i]);
+			sfat.nodes[i].setFileName(sfnt.filenames[i], validation);
 			
 			//data.align(128);
 			//FIXME
@@ -112,8 +122,8 @@ public class SARCDecompress {
 				nodeFileDataEnd = data.getInt();
 			}
 			
-			public void setFileName(String fileName) {
-				if(fileNameHash != fileNameHashCode(fileName, 101)) {
+			public void setFileName(String fileName, ValidationLevel validation) {
+				if(validation.checksValues() && fileNameHash != fileNameHashCode(fileName, 101)) {
 					throw new UnsupportedOperationException("FileNameHash doesn't match: should be: "+fileNameHash+" ; is: "+fileNameHashCode(fileName, 101)+" for "+fileName);
 				}
 				this.fileName = fileName;
@@ -1,9 +1,7 @@
 package types;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
-
-import util.ByteConversions;
 
 public class Quatf {
 
@@ -65,20 +63,110 @@ public class Quatf {
 	}
 
 	public byte[] getData() {
-		byte[] xb = ByteConversions.fromFloat(x, ByteOrder.LITTLE_ENDIAN);
-		byte[] yb = ByteConversions.fromFloat(y, ByteOrder.LITTLE_ENDIAN);
-		byte[] zb = ByteConversions.fromFloat(z, ByteOrder.LITTLE_ENDIAN);
-		byte[] wb = ByteConversions.fromFloat(w, ByteOrder.LITTLE_ENDIAN);
-
-		return ByteConversions.mergeArrays(xb, yb, zb, wb);
+		return getData(ByteOrder.LITTLE_ENDIAN);
+	}
+	public byte[] getData(ByteOrder order) {
+		byte[] data = new byte[16];
+		VectorCodec.putFloat(data, 0, x, order);
+		VectorCodec.putFloat(data, 4, y, order);
+		VectorCodec.putFloat(data, 8, z, order);
+		VectorCodec.putFloat(data, 12, w, order);
+		return data;
 	}
 
 	public static Quatf fromData(byte[] data, int offset) {
+		return fromData(data, offset, ByteOrder.LITTLE_ENDIAN);
+	}
+	public static Quatf fromData(byte[] data, int offset, ByteOrder order) {
 		return new Quatf(
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset, offset + 4), ByteOrder.LITTLE_ENDIAN),
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset + 4, offset + 8), ByteOrder.LITTLE_ENDIAN),
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset + 8, offset + 12), ByteOrder.LITTLE_ENDIAN),
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset + 12, offset + 16), ByteOrder.LITTLE_ENDIAN));
+				VectorCodec.getFloat(data, offset, order),
+				VectorCodec.getFloat(data, offset + 4, order),
+				VectorCodec.getFloat(data, offset + 8, order),
+				VectorCodec.getFloat(data, offset + 12, order));
+	}
+
+	// batch codecs, 4 floats per value. existing objects in dest are reused
+	public static Quatf[] fromData(ByteBuffer data, int offset, int count, ByteOrder order) {
+		return fromData(data, offset, order, new Quatf[count], 0, count);
+	}
+	public static Quatf[] fromData(ByteBuffer data, int offset, ByteOrder order, Quatf[] dest, int destOffset, int count) {
+		for(int i=0;i<count;i++) {
+			int o = offset + i*16;
+			Quatf v = dest[destOffset+i];
+			if(v == null) {
+				v = dest[destOffset+i] = new Quatf(0, 0, 0, 0);
+			}
+			v.set(
+				VectorCodec.getFloat(data, o, order),
+				VectorCodec.getFloat(data, o + 4, order),
+				VectorCodec.getFloat(data, o + 8, order),
+				VectorCodec.getFloat(data, o + 12, order));
+		}
+		return dest;
+	}
+	public static void toData(Quatf[] src, int srcOffset, int count, ByteBuffer dest, int offset, ByteOrder order) {
+		for(int i=0;i<count;i++) {
+			Quatf v = src[srcOffset+i];
+			int o = offset + i*16;
+			VectorCodec.putFloat(dest, o, v.x, order);
+			VectorCodec.putFloat(dest, o + 4, v.y, order);
+			VectorCodec.putFloat(dest, o + 8, v.z, order);
+			VectorCodec.putFloat(dest, o + 12, v.w, order);
+		}
+	}
+
+	// variants writing into dest (which can be this or other), nothing is allocated
+	public Quatf set(float x, float y, float z, float w) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.w = w;
+		return this;
+	}
+	public Quatf set(Quatf other) {
+		return set(other.x, other.y, other.z, other.w);
+	}
+	// Hamilton product this * other
+	public Quatf multiply(Quatf other, Quatf dest) {
+		return dest.set(
+				w * other.x + x * other.w + y * other.z - z * other.y,
+				w * other.y - x * other.z + y * other.w + z * other.x,
+				w * other.z + x * other.y - y * other.x + z * other.w,
+				w * other.w - x * other.x - y * other.y - z * other.z);
+	}
+	public Quatf normalize(Quatf dest) {
+		float factor = 1 / (float) Math.sqrt(x * x + y * y + z * z + w * w);
+		return dest.set(x * factor, y * factor, z * factor, w * factor);
+	}
+	public Quatf conjugate(Quatf dest) {
+		return dest.set(-x, -y, -z, w);
+	}
+	// rotates v by this (unit) quaternion
+	public Vector3f rotate(Vector3f v, Vector3f dest) {
+		float tx = 2 * (y * v.z - z * v.y), ty = 2 * (z * v.x - x * v.z), tz = 2 * (x * v.y - y * v.x);
+		return dest.set(
+				v.x + w * tx + y * tz - z * ty,
+				v.y + w * ty + z * tx - x * tz,
+				v.z + w * tz + x * ty - y * tx);
+	}
+	
+	// kernels on xyzw quaternions stored in float arrays, the index is the position of x
+	public static void multiply(float[] a, int ai, float[] b, int bi, float[] dest, int di) {
+		float ax = a[ai], ay = a[ai+1], az = a[ai+2], aw = a[ai+3];
+		float bx = b[bi], by = b[bi+1], bz = b[bi+2], bw = b[bi+3];
+		dest[di] = aw * bx + ax * bw + ay * bz - az * by;
+		dest[di+1] = aw * by - ax * bz + ay * bw + az * bx;
+		dest[di+2] = aw * bz + ax * by - ay * bx + az * bw;
+		dest[di+3] = aw * bw - ax * bx - ay * by - az * bz;
+	}
+	// rotates the xyz triple v[vi] by the quaternion q[qi]
+	public static void rotate(float[] q, int qi, float[] v, int vi, float[] dest, int di) {
+		float x = q[qi], y = q[qi+1], z = q[qi+2], w = q[qi+3];
+		float vx = v[vi], vy = v[vi+1], vz = v[vi+2];
+		float tx = 2 * (y * vz - z * vy), ty = 2 * (z * vx - x * vz), tz = 2 * (x * vy - y * vx);
+		dest[di] = vx + w * tx + y * tz - z * ty;
+		dest[di+1] = vy + w * ty + z * tx - x * tz;
+		dest[di+2] = vz + w * tz + x * ty - y * tx;
 	}
 
 }
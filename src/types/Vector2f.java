@@ -1,9 +1,7 @@
 package types;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
-
-import util.ByteConversions;
 
 public class Vector2f {
 	
@@ -52,16 +50,87 @@ public class Vector2f {
 		return true;
 	}
 	public byte[] getData() {
-		byte[] xb = ByteConversions.fromFloat(x, ByteOrder.LITTLE_ENDIAN);
-		byte[] yb = ByteConversions.fromFloat(y, ByteOrder.LITTLE_ENDIAN);
-		
-		return ByteConversions.mergeArrays(xb, yb);
+		return getData(ByteOrder.LITTLE_ENDIAN);
+	}
+	public byte[] getData(ByteOrder order) {
+		byte[] data = new byte[8];
+		VectorCodec.putFloat(data, 0, x, order);
+		VectorCodec.putFloat(data, 4, y, order);
+		return data;
 	}
 
 	public static Vector2f fromData(byte[] data, int offset) {
+		return fromData(data, offset, ByteOrder.LITTLE_ENDIAN);
+	}
+	public static Vector2f fromData(byte[] data, int offset, ByteOrder order) {
 		return new Vector2f(
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset, offset + 4), ByteOrder.LITTLE_ENDIAN),
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset + 4, offset + 8), ByteOrder.LITTLE_ENDIAN));
+				VectorCodec.getFloat(data, offset, order),
+				VectorCodec.getFloat(data, offset + 4, order));
+	}
+
+	// batch codecs, 2 floats per value. existing objects in dest are reused
+	public static Vector2f[] fromData(ByteBuffer data, int offset, int count, ByteOrder order) {
+		return fromData(data, offset, order, new Vector2f[count], 0, count);
+	}
+	public static Vector2f[] fromData(ByteBuffer data, int offset, ByteOrder order, Vector2f[] dest, int destOffset, int count) {
+		for(int i=0;i<count;i++) {
+			int o = offset + i*8;
+			Vector2f v = dest[destOffset+i];
+			if(v == null) {
+				v = dest[destOffset+i] = new Vector2f(0, 0);
+			}
+			v.set(
+				VectorCodec.getFloat(data, o, order),
+				VectorCodec.getFloat(data, o + 4, order));
+		}
+		return dest;
+	}
+	public static void toData(Vector2f[] src, int srcOffset, int count, ByteBuffer dest, int offset, ByteOrder order) {
+		for(int i=0;i<count;i++) {
+			Vector2f v = src[srcOffset+i];
+			int o = offset + i*8;
+			VectorCodec.putFloat(dest, o, v.x, order);
+			VectorCodec.putFloat(dest, o + 4, v.y, order);
+		}
+	}
+
+	// variants writing into dest (which can be this or other), nothing is allocated
+	public Vector2f set(float x, float y) {
+		this.x = x;
+		this.y = y;
+		return this;
+	}
+	public Vector2f set(Vector2f other) {
+		return set(other.x, other.y);
+	}
+	public float dotProduct(Vector2f other) {
+		return this.x * other.x + this.y * other.y;
+	}
+	public Vector2f multiply(float factor, Vector2f dest) {
+		return dest.set(this.x * factor, this.y * factor);
+	}
+	public Vector2f add(Vector2f other, Vector2f dest) {
+		return dest.set(this.x + other.x, this.y + other.y);
+	}
+	public Vector2f subtract(Vector2f other, Vector2f dest) {
+		return dest.set(this.x - other.x, this.y - other.y);
+	}
+	
+	// kernels on xy pairs stored in float arrays, the index is the position of x
+	public static float dotProduct(float[] a, int ai, float[] b, int bi) {
+		return a[ai] * b[bi] + a[ai+1] * b[bi+1];
+	}
+	public static void add(float[] a, int ai, float[] b, int bi, float[] dest, int di) {
+		dest[di] = a[ai] + b[bi];
+		dest[di+1] = a[ai+1] + b[bi+1];
+	}
+	public static void subtract(float[] a, int ai, float[] b, int bi, float[] dest, int di) {
+		dest[di] = a[ai] - b[bi];
+		dest[di+1] = a[ai+1] - b[bi+1];
+	}
+	public static void multiply(float[] a, int ai, float factor, float[] dest, int di) {
+		dest[di] = a[ai] * factor;
+		dest[di+1] = a[ai+1] * factor;
 	}
 
 }
@@ -1,9 +1,7 @@
 package types;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
-
-import util.ByteConversions;
 
 public class Vector3f {
 
@@ -60,18 +58,52 @@ public class Vector3f {
 	}
 
 	public byte[] getData() {
-		byte[] xb = ByteConversions.fromFloat(x, ByteOrder.LITTLE_ENDIAN);
-		byte[] yb = ByteConversions.fromFloat(y, ByteOrder.LITTLE_ENDIAN);
-		byte[] zb = ByteConversions.fromFloat(z, ByteOrder.LITTLE_ENDIAN);
-
-		return ByteConversions.mergeArrays(xb, yb, zb);
+		return getData(ByteOrder.LITTLE_ENDIAN);
+	}
+	public byte[] getData(ByteOrder order) {
+		byte[] data = new byte[12];
+		VectorCodec.putFloat(data, 0, x, order);
+		VectorCodec.putFloat(data, 4, y, order);
+		VectorCodec.putFloat(data, 8, z, order);
+		return data;
 	}
 
 	public static Vector3f fromData(byte[] data, int offset) {
+		return fromData(data, offset, ByteOrder.LITTLE_ENDIAN);
+	}
+	public static Vector3f fromData(byte[] data, int offset, ByteOrder order) {
 		return new Vector3f(
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset, offset + 4), ByteOrder.LITTLE_ENDIAN),
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset + 4, offset + 8), ByteOrder.LITTLE_ENDIAN),
-				ByteConversions.toFloat(Arrays.copyOfRange(data, offset + 8, offset + 12), ByteOrder.LITTLE_ENDIAN));
+				VectorCodec.getFloat(data, offset, order),
+				VectorCodec.getFloat(data, offset + 4, order),
+				VectorCodec.getFloat(data, offset + 8, order));
+	}
+
+	// batch codecs, 3 floats per value. existing objects in dest are reused
+	public static Vector3f[] fromData(ByteBuffer data, int offset, int count, ByteOrder order) {
+		return fromData(data, offset, order, new Vector3f[count], 0, count);
+	}
+	public static Vector3f[] fromData(ByteBuffer data, int offset, ByteOrder order, Vector3f[] dest, int destOffset, int count) {
+		for(int i=0;i<count;i++) {
+			int o = offset + i*12;
+			Vector3f v = dest[destOffset+i];
+			if(v == null) {
+				v = dest[destOffset+i] = new Vector3f(0, 0, 0);
+			}
+			v.set(
+				VectorCodec.getFloat(data, o, order),
+				VectorCodec.getFloat(data, o + 4, order),
+				VectorCodec.getFloat(data, o + 8, order));
+		}
+		return dest;
+	}
+	public static void toData(Vector3f[] src, int srcOffset, int count, ByteBuffer dest, int offset, ByteOrder order) {
+		for(int i=0;i<count;i++) {
+			Vector3f v = src[srcOffset+i];
+			int o = offset + i*12;
+			VectorCodec.putFloat(dest, o, v.x, order);
+			VectorCodec.putFloat(dest, o + 4, v.y, order);
+			VectorCodec.putFloat(dest, o + 8, v.z, order);
+		}
 	}
 	
 	public Vector3f crossProduct(Vector3f other) {
@@ -99,4 +131,78 @@ public class Vector3f {
 		);
 	}
 
+	// variants writing into dest (which can be this or other), nothing is allocated
+	public Vector3f set(float x, float y, float z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+	public Vector3f set(Vector3f other) {
+		return set(other.x, other.y, other.z);
+	}
+	public Vector3f crossProduct(Vector3f other, Vector3f dest) {
+		return dest.set(
+				this.y * other.z - this.z * other.y,
+				this.z * other.x - this.x * other.z,
+				this.x * other.y - this.y * other.x
+		);
+	}
+	public Vector3f multiply(float factor, Vector3f dest) {
+		return dest.set(this.x * factor, this.y * factor, this.z * factor);
+	}
+	public Vector3f add(Vector3f other, Vector3f dest) {
+		return dest.set(this.x + other.x, this.y + other.y, this.z + other.z);
+	}
+	public Vector3f subtract(Vector3f other, Vector3f dest) {
+		return dest.set(this.x - other.x, this.y - other.y, this.z - other.z);
+	}
+	// this + other * factor
+	public Vector3f addScaled(Vector3f other, float factor, Vector3f dest) {
+		return dest.set(this.x + other.x * factor, this.y + other.y * factor, this.z + other.z * factor);
+	}
+	public Vector3f normalize(Vector3f dest) {
+		return multiply(1 / length(), dest);
+	}
+	public float length() {
+		return (float) Math.sqrt(dotProduct(this));
+	}
+	
+	// kernels on xyz triples stored in float arrays, the index is the position of x
+	public static void crossProduct(float[] a, int ai, float[] b, int bi, float[] dest, int di) {
+		float x = a[ai+1] * b[bi+2] - a[ai+2] * b[bi+1];
+		float y = a[ai+2] * b[bi] - a[ai] * b[bi+2];
+		float z = a[ai] * b[bi+1] - a[ai+1] * b[bi];
+		dest[di] = x;
+		dest[di+1] = y;
+		dest[di+2] = z;
+	}
+	public static float dotProduct(float[] a, int ai, float[] b, int bi) {
+		return a[ai] * b[bi] + a[ai+1] * b[bi+1] + a[ai+2] * b[bi+2];
+	}
+	public static void add(float[] a, int ai, float[] b, int bi, float[] dest, int di) {
+		dest[di] = a[ai] + b[bi];
+		dest[di+1] = a[ai+1] + b[bi+1];
+		dest[di+2] = a[ai+2] + b[bi+2];
+	}
+	public static void subtract(float[] a, int ai, float[] b, int bi, float[] dest, int di) {
+		dest[di] = a[ai] - b[bi];
+		dest[di+1] = a[ai+1] - b[bi+1];
+		dest[di+2] = a[ai+2] - b[bi+2];
+	}
+	public static void multiply(float[] a, int ai, float factor, float[] dest, int di) {
+		dest[di] = a[ai] * factor;
+		dest[di+1] = a[ai+1] * factor;
+		dest[di+2] = a[ai+2] * factor;
+	}
+	// a + b * factor
+	public static void addScaled(float[] a, int ai, float[] b, int bi, float factor, float[] dest, int di) {
+		dest[di] = a[ai] + b[bi] * factor;
+		dest[di+1] = a[ai+1] + b[bi+1] * factor;
+		dest[di+2] = a[ai+2] + b[bi+2] * factor;
+	}
+	public static void normalize(float[] a, int ai, float[] dest, int di) {
+		multiply(a, ai, 1 / (float) Math.sqrt(dotProduct(a, ai, a, ai)), dest, di);
+	}
+
 }
@@ -0,0 +1,53 @@
+package types;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// float access for the vector types without temporary arrays, N vectors are N*components consecutive floats.
+// the bulk methods decode into / encode from flat float arrays, the vector types use them for their batch codecs
+public class VectorCodec {
+
+	private static final VarHandle ARRAY_LE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle ARRAY_BE = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle BUFFER_LE = MethodHandles.byteBufferViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle BUFFER_BE = MethodHandles.byteBufferViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+
+	public static float getFloat(byte[] data, int offset, ByteOrder order) {
+		return (float) (order == ByteOrder.LITTLE_ENDIAN ? ARRAY_LE : ARRAY_BE).get(data, offset);
+	}
+	public static void putFloat(byte[] data, int offset, float f, ByteOrder order) {
+		(order == ByteOrder.LITTLE_ENDIAN ? ARRAY_LE : ARRAY_BE).set(data, offset, f);
+	}
+	// absolute offsets, the position of the buffer isn't used
+	public static float getFloat(ByteBuffer data, int offset, ByteOrder order) {
+		return (float) (order == ByteOrder.LITTLE_ENDIAN ? BUFFER_LE : BUFFER_BE).get(data, offset);
+	}
+	public static void putFloat(ByteBuffer data, int offset, float f, ByteOrder order) {
+		(order == ByteOrder.LITTLE_ENDIAN ? BUFFER_LE : BUFFER_BE).set(data, offset, f);
+	}
+
+	public static float[] getFloats(byte[] data, int offset, ByteOrder order, float[] dest, int destOffset, int count) {
+		VarHandle handle = order == ByteOrder.LITTLE_ENDIAN ? ARRAY_LE : ARRAY_BE;
+		for(int i=0;i<count;i++) {
+			dest[destOffset+i] = (float) handle.get(data, offset+i*4);
+		}
+		return dest;
+	}
+	public static float[] getFloats(ByteBuffer data, int offset, ByteOrder order, float[] dest, int destOffset, int count) {
+		data.slice(offset, count*4).order(order).asFloatBuffer().get(dest, destOffset, count);
+		return dest;
+	}
+
+	public static void putFloats(float[] src, int srcOffset, int count, byte[] dest, int offset, ByteOrder order) {
+		VarHandle handle = order == ByteOrder.LITTLE_ENDIAN ? ARRAY_LE : ARRAY_BE;
+		for(int i=0;i<count;i++) {
+			handle.set(dest, offset+i*4, src[srcOffset+i]);
+		}
+	}
+	public static void putFloats(float[] src, int srcOffset, int count, ByteBuffer dest, int offset, ByteOrder order) {
+		dest.slice(offset, count*4).order(order).asFloatBuffer().put(src, srcOffset, count);
+	}
+
+}
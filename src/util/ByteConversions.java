@@ -1,6 +1,8 @@
 package util;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
 
@@ -152,4 +154,99 @@ public class ByteConversions {
 	        | ( exp | mant ) << 13 );         // value << ( 23 - 10 )
 	}
 
+	// exact value of every possible half, built on first use.
+	// unlike toHalf, powers of two keep an empty mantissa, so floatToHalf(halfToFloat(h)) == h for every non-NaN half
+	private static class HalfTable {
+		private static final float[] FLOATS = new float[0x10000];
+		static {
+			for(int i=0;i<FLOATS.length;i++) {
+				FLOATS[i] = exactHalf(i);
+			}
+		}
+	}
+
+	private static float exactHalf(int hbits) {
+		int sign = (hbits & 0x8000) << 16;
+		int exp = (hbits >>> 10) & 0x1F;
+		int mant = hbits & 0x3FF;
+		if(exp == 0x1F) {
+			return Float.intBitsToFloat(sign | 0x7F800000 | mant << 13);
+		}
+		if(exp == 0) { // zero or subnormal, mant * 2^-24 is exact as a float
+			return Float.intBitsToFloat(sign | Float.floatToRawIntBits(mant * 0x1p-24f));
+		}
+		return Float.intBitsToFloat(sign | (exp + 112) << 23 | mant << 13);
+	}
+	
+	// exact half to float conversion through the lookup table
+	public static float halfToFloat(int hbits) {
+		return HalfTable.FLOATS[hbits & 0xFFFF];
+	}
+	public static float[] halfsToFloats(short[] src, int srcOffset, float[] dest, int destOffset, int count) {
+		float[] table = HalfTable.FLOATS;
+		for(int i=0;i<count;i++) {
+			dest[destOffset+i] = table[src[srcOffset+i] & 0xFFFF];
+		}
+		return dest;
+	}
+	// absolute offset, the position of the buffer isn't used
+	public static float[] halfsToFloats(ByteBuffer src, int offset, ByteOrder order, float[] dest, int destOffset, int count) {
+		float[] table = HalfTable.FLOATS;
+		ShortBuffer halfs = src.slice(offset, count*2).order(order).asShortBuffer();
+		for(int i=0;i<count;i++) {
+			dest[destOffset+i] = table[halfs.get(i) & 0xFFFF];
+		}
+		return dest;
+	}
+	
+	// per float exponent: what's added to the mantissa (with the implicit bit) shifted right, see
+	// "Fast Half Float Conversions" (van der Zijp). too small values get shift 31 and become 0, too large ones infinity
+	private static final short[] HALF_BASE = new short[256];
+	private static final byte[] HALF_SHIFT = new byte[256];
+	static {
+		for(int e=0;e<256;e++) {
+			if(e < 102) {
+				HALF_SHIFT[e] = 31;
+			} else if(e < 113) { // subnormal halfs
+				HALF_SHIFT[e] = (byte) (126 - e);
+			} else if(e < 143) {
+				HALF_BASE[e] = (short) ((e - 113) << 10);
+				HALF_SHIFT[e] = 13;
+			} else {
+				HALF_BASE[e] = 0x7C00;
+				HALF_SHIFT[e] = 31;
+			}
+		}
+	}
+	
+	// rounds to nearest even, NaNs stay NaN
+	public static short floatToHalf(float f) {
+		int bits = Float.floatToRawIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int e = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+		if(e == 0xFF) {
+			return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 | (mantissa >>> 13) : 0));
+		}
+		int full = e == 0 ? mantissa : mantissa | 0x800000;
+		int shift = HALF_SHIFT[e];
+		int h = HALF_BASE[e] + (full >>> shift);
+		if(((full >>> (shift - 1)) & 1) != 0 && ((full & ((1 << (shift - 1)) - 1)) != 0 || (h & 1) != 0)) {
+			h++; // carries into the exponent (up to infinity) if the mantissa overflows
+		}
+		return (short) (sign | h);
+	}
+	public static short[] floatsToHalfs(float[] src, int srcOffset, short[] dest, int destOffset, int count) {
+		for(int i=0;i<count;i++) {
+			dest[destOffset+i] = floatToHalf(src[srcOffset+i]);
+		}
+		return dest;
+	}
+	public static void floatsToHalfs(float[] src, int srcOffset, int count, ByteBuffer dest, int offset, ByteOrder order) {
+		ShortBuffer halfs = dest.slice(offset, count*2).order(order).asShortBuffer();
+		for(int i=0;i<count;i++) {
+			halfs.put(i, floatToHalf(src[srcOffset+i]));
+		}
+	}
+
 }
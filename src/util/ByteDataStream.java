@@ -1,5 +1,7 @@
 package util;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
@@ -7,18 +9,33 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Stack;
 
+import types.Quatf;
+import types.Vector2f;
 import types.Vector3f;
 
 public class ByteDataStream {
 	
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final long ONES = 0x0101010101010101L, HIGH_BITS = 0x8080808080808080L;
+	
 	private Stack<Integer> positionStore;
 	private ByteBuffer buffer;
+	private ValidationLevel validation = ValidationLevel.STRICT;
+	private StringPool stringPool;
 
 	public ByteDataStream(byte[] array) {
 		this(array, ByteOrder.LITTLE_ENDIAN);
 	}
 	public ByteDataStream(byte[] array, ByteOrder order) {
-		buffer = ByteBuffer.wrap(array).order(order);
+		this(ByteBuffer.wrap(array), order);
+	}
+	// reads the remaining bytes of the buffer without copying them, e.g. direct or mapped buffers (see NintendoUtil.mapFile).
+	// positions are relative to the buffer's current position, the buffer itself is not modified
+	public ByteDataStream(ByteBuffer buffer) {
+		this(buffer, ByteOrder.LITTLE_ENDIAN);
+	}
+	public ByteDataStream(ByteBuffer buffer, ByteOrder order) {
+		this.buffer = buffer.slice().order(order);
 		positionStore = new Stack<>();
 	}
 	
@@ -26,6 +43,26 @@ public class ByteDataStream {
 		return buffer.capacity();
 	}
 
+	public ByteOrder order() {
+		return buffer.order();
+	}
+	public void order(ByteOrder order) {
+		buffer.order(order);
+	}
+
+	// below STRICT the assert/expect methods and align only skip the bytes they would check
+	public ValidationLevel validation() {
+		return validation;
+	}
+	public void validation(ValidationLevel validation) {
+		this.validation = validation;
+	}
+
+	// ASCII null-terminated strings are deduplicated through the pool, null disables it
+	public void stringPool(StringPool stringPool) {
+		this.stringPool = stringPool;
+	}
+
 	public void storePos() {
 		positionStore.push(buffer.position());
 	}
@@ -51,9 +88,17 @@ public class ByteDataStream {
 	}
 	public void align(int alignment, byte fillValue) {
 		int difference = (alignment-(position()%alignment))%alignment;
-		byte[] alignmentBytes = new byte[difference];
-		Arrays.fill(alignmentBytes, fillValue);
-		expectBytes(alignmentBytes, "data in align"); // checks it really is empty
+		if(validation.checksValues()) {
+			int start = buffer.position();
+			for(int i=0;i<difference;i++) {
+				if(buffer.get(start+i) != fillValue) { // checks it really is empty
+					byte[] alignmentBytes = new byte[difference];
+					Arrays.fill(alignmentBytes, fillValue);
+					expectBytes(alignmentBytes, "data in align");
+				}
+			}
+		}
+		seekForward(difference);
 	}
 
 
@@ -64,7 +109,9 @@ public class ByteDataStream {
 		return buffer.getShort();
 	}
 	public int getU24() {
-		return NintendoUtil.u24IntFromByteArray(getBytes(3), buffer.order());
+		int value = getU24(buffer.position());
+		seekForward(3);
+		return value;
 	}
 	public int getInt() {
 		return buffer.getInt();
@@ -73,7 +120,7 @@ public class ByteDataStream {
 		return buffer.getLong();
 	}
 	public float getHalf() {
-		return ByteConversions.toHalf(getShort());
+		return ByteConversions.halfToFloat(getShort());
 	}
 	public float getFloat() {
 		return buffer.getFloat();
@@ -86,6 +133,34 @@ public class ByteDataStream {
 		return buffer.get(buffer.position());
 	}
 
+	// absolute reads, these don't change the current position
+	public byte getByte(int position) {
+		return buffer.get(position);
+	}
+	public short getShort(int position) {
+		return buffer.getShort(position);
+	}
+	public int getU24(int position) {
+		if(buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+			return (buffer.get(position+2) & 0xFF) << 16 | (buffer.get(position+1) & 0xFF) << 8 | (buffer.get(position) & 0xFF);
+		} else {
+			return (buffer.get(position) & 0xFF) << 16 | (buffer.get(position+1) & 0xFF) << 8 | (buffer.get(position+2) & 0xFF);
+		}
+	}
+	public int getInt(int position) {
+		return buffer.getInt(position);
+	}
+	public long getLong(int position) {
+		return buffer.getLong(position);
+	}
+	public double getDouble(int position) {
+		return buffer.getDouble(position);
+	}
+	// read-only view on the backing data, no bytes are copied
+	public ByteBuffer slice(int position, int length) {
+		return buffer.slice(position, length).asReadOnlyBuffer().order(buffer.order());
+	}
+
 	public byte[] getBytes(int i) {
 		if(i > buffer.remaining()) {
 			throw new IllegalArgumentException("Not enough bytes left in buffer: Requested "+i+" bytes, but only "+buffer.remaining()+" are available!");
@@ -95,32 +170,50 @@ public class ByteDataStream {
 		return data;
 	}
 	public short[] getShorts(int count) {
-		short[] returns = new short[count];
-		for(int i=0;i<count;i++) {
-			returns[i] = getShort();
-		}
-		return returns;
+		return getShorts(new short[count], 0, count);
 	}
 	public int[] getInts(int count) {
-		int[] returns = new int[count];
-		for(int i=0;i<count;i++) {
-			returns[i] = getInt();
-		}
-		return returns;
+		return getInts(new int[count], 0, count);
 	}
 	public long[] getLongs(int count) {
-		long[] returns = new long[count];
-		for(int i=0;i<count;i++) {
-			returns[i] = getLong();
-		}
-		return returns;
+		return getLongs(new long[count], 0, count);
 	}
 	public float[] getFloats(int count) {
-		float[] returns = new float[count];
-		for(int i=0;i<count;i++) {
-			returns[i] = getFloat();
-		}
-		return returns;
+		return getFloats(new float[count], 0, count);
+	}
+
+	// bulk reads into existing arrays through typed views on the buffer, the position is advanced afterwards
+	public byte[] getBytes(byte[] dest, int offset, int count) {
+		buffer.get(dest, offset, count);
+		return dest;
+	}
+	public short[] getShorts(short[] dest, int offset, int count) {
+		buffer.asShortBuffer().get(dest, offset, count);
+		seekForward(count*2);
+		return dest;
+	}
+	public int[] getInts(int[] dest, int offset, int count) {
+		buffer.asIntBuffer().get(dest, offset, count);
+		seekForward(count*4);
+		return dest;
+	}
+	public long[] getLongs(long[] dest, int offset, int count) {
+		buffer.asLongBuffer().get(dest, offset, count);
+		seekForward(count*8);
+		return dest;
+	}
+	public float[] getFloats(float[] dest, int offset, int count) {
+		buffer.asFloatBuffer().get(dest, offset, count);
+		seekForward(count*4);
+		return dest;
+	}
+	public float[] getHalfs(int count) {
+		return getHalfs(new float[count], 0, count);
+	}
+	public float[] getHalfs(float[] dest, int offset, int count) {
+		ByteConversions.halfsToFloats(buffer, buffer.position(), buffer.order(), dest, offset, count);
+		seekForward(count*2);
+		return dest;
 	}
 
 	public String getString(StringType type) {
@@ -128,15 +221,7 @@ public class ByteDataStream {
 	}
 	public String getString(StringType type, Charset encoding) {
 		return switch(type) {
-		case NULL_TERMINATED -> {
-			buffer.mark();
-			int count = 0;
-			while(getByte() != 0) count++;
-			buffer.reset();
-			String s = getString(count, encoding);
-			expectByte(0, "value after null-terminated string");
-			yield s;
-		}
+		case NULL_TERMINATED -> getNullTerminatedString(encoding);
 		case BYTE_LEN_PREFIX -> {
 			yield getString(getByte(), encoding);
 		}
@@ -145,6 +230,54 @@ public class ByteDataStream {
 		}
 		};
 	}
+	// scans 8 bytes at a time for the terminator and whether all bytes are ASCII,
+	// see "Determine if a word has a zero byte" in Bit Twiddling Hacks
+	private String getNullTerminatedString(Charset encoding) {
+		int start = buffer.position(), limit = buffer.limit();
+		int end = start;
+		long highBits = 0;
+		boolean terminated = false;
+		while(end + 8 <= limit) {
+			long word = (long) LONGS.get(buffer, end);
+			long zeros = (word - ONES) & ~word & HIGH_BITS;
+			if(zeros != 0) {
+				int index = Long.numberOfTrailingZeros(zeros) >>> 3;
+				highBits |= word & ((1L << (index*8)) - 1);
+				end += index;
+				terminated = true;
+				break;
+			}
+			highBits |= word;
+			end += 8;
+		}
+		for(; !terminated && end < limit; end++) {
+			byte b = buffer.get(end);
+			if(b == 0) {
+				terminated = true;
+				break;
+			}
+			highBits |= b;
+		}
+		if(!terminated) {
+			throw new UnsupportedOperationException("Null-terminated string at "+start+" has no terminator");
+		}
+		buffer.position(end + 1);
+		
+		int length = end - start;
+		boolean ascii = (highBits & HIGH_BITS) == 0 && (encoding == StandardCharsets.UTF_8 || encoding == StandardCharsets.US_ASCII);
+		if(ascii) {
+			if(stringPool != null) {
+				return stringPool.get(buffer, start, length);
+			}
+			encoding = StandardCharsets.ISO_8859_1; // same characters, but strings are built with a plain copy
+		}
+		if(buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset()+start, length, encoding);
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(start, bytes);
+		return new String(bytes, encoding);
+	}
 	public String getString(int length, Charset encoding) {
 		return new String(getBytes(length), encoding);
 	}
@@ -153,7 +286,25 @@ public class ByteDataStream {
 	}
 
 	public Vector3f readVector3F() {
-		return new Vector3f(getFloat(), getFloat(), getFloat());
+		return readVector3F(new Vector3f(0, 0, 0));
+	}
+	public Vector3f readVector3F(Vector3f dest) {
+		return dest.set(getFloat(), getFloat(), getFloat());
+	}
+	public Vector2f[] readVector2Fs(int count) {
+		Vector2f[] vectors = Vector2f.fromData(buffer, buffer.position(), count, buffer.order());
+		seekForward(count*8);
+		return vectors;
+	}
+	public Vector3f[] readVector3Fs(int count) {
+		Vector3f[] vectors = Vector3f.fromData(buffer, buffer.position(), count, buffer.order());
+		seekForward(count*12);
+		return vectors;
+	}
+	public Quatf[] readQuatfs(int count) {
+		Quatf[] quats = Quatf.fromData(buffer, buffer.position(), count, buffer.order());
+		seekForward(count*16);
+		return quats;
 	}
 	public int[] readVector3U() {
 		return getInts(3);
@@ -184,64 +335,104 @@ public class ByteDataStream {
 	}
 	
 	public void assertMagic(String expectedMagic) {
+		if(!validation.checksValues()) {
+			seekForward(expectedMagic.length());
+			return;
+		}
 		String magic = getString(expectedMagic.length());
 		if(!magic.equals(expectedMagic)) {
 			throw new UnsupportedOperationException(expectedMagic+" magic not correct: "+magic);
 		}
 	}
 	public void assertPosition(int pos) {
-		if(position() != pos) {
+		if(!validation.checksValues()) {
+			seek(pos);
+		} else if(position() != pos) {
 			throw new UnsupportedOperationException("Does not match expected position: "+position()+", expected: "+pos);
 		}
 	}
 	public void assertEOF() {
-		if(buffer.remaining() != 0) {
+		if(validation.checksValues() && buffer.remaining() != 0) {
 			throw new UnsupportedOperationException("Expected end of stream, but actually "+buffer.remaining()+" bytes remain");
 		}
 	}
 	
 
 	public void expectByte(int value, String message) {
+		if(!validation.checksValues()) {
+			seekForward(1);
+			return;
+		}
 		byte val = getByte();
 		if(val != value) {
 			throw new UnsupportedOperationException("Unexpected "+message+". expected: "+value+", actual: "+val);
 		}
 	}
 	public void expectShort(int value, String message) {
+		if(!validation.checksValues()) {
+			seekForward(2);
+			return;
+		}
 		short val = getShort();
 		if(val != value) {
 			throw new UnsupportedOperationException("Unexpected "+message+". expected: "+value+", actual: "+val);
 		}
 	}
 	public void expectInt(int value, String message) {
+		if(!validation.checksValues()) {
+			seekForward(4);
+			return;
+		}
 		int val = getInt();
 		if(val != value) {
 			throw new UnsupportedOperationException("Unexpected "+message+". expected: "+value+", actual: "+val);
 		}
 	}
 	public void expectLong(long value, String message) {
+		if(!validation.checksValues()) {
+			seekForward(8);
+			return;
+		}
 		long val = getLong();
 		if(val != value) {
 			throw new UnsupportedOperationException("Unexpected "+message+". expected: "+value+", actual: "+val);
 		}
 	}
 	public void expectFloat(float value, String message) {
+		if(!validation.checksValues()) {
+			seekForward(4);
+			return;
+		}
 		float val = getFloat();
 		if(val != value) {
 			throw new UnsupportedOperationException("Unexpected "+message+". expected: "+value+", actual: "+val);
 		}
 	}
 	public void expectByteOrder(ByteOrder order) {
+		if(!validation.checksValues()) {
+			seekForward(2);
+			return;
+		}
 		ByteOrder o = readByteOrder();
 		if(o != order) {
 			throw new UnsupportedOperationException("Unexpected or unsupported byte order. expected: "+order+", actual: "+o);
 		}
 	}
 	public void expectBytes(byte[] data, String message) {
-		byte[] val = getBytes(data.length);
-		if(!Arrays.equals(val, data)) {
-			throw new UnsupportedOperationException("Unexpected "+message+". expected: "+Arrays.toString(data)+", actual: "+Arrays.toString(val));
+		if(!validation.checksValues()) {
+			seekForward(data.length);
+			return;
+		}
+		if(data.length > buffer.remaining()) {
+			throw new IllegalArgumentException("Not enough bytes left in buffer: Requested "+data.length+" bytes, but only "+buffer.remaining()+" are available!");
+		}
+		int start = buffer.position();
+		for(int i=0;i<data.length;i++) {
+			if(buffer.get(start+i) != data[i]) {
+				throw new UnsupportedOperationException("Unexpected "+message+". expected: "+Arrays.toString(data)+", actual: "+Arrays.toString(getBytes(data.length)));
+			}
 		}
+		seekForward(data.length);
 	}
 	
 	
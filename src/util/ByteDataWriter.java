@@ -0,0 +1,297 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeSet;
+
+import types.Quatf;
+import types.Vector2f;
+import types.Vector3f;
+import util.ByteDataStream.StringType;
+
+// counterpart of ByteDataStream: appends to a buffer that doubles when it's full.
+// offsets that aren't known yet can be reserved and patched later with the absolute put methods.
+// flush writes everything before the first unpatched slot to a channel, positions stay absolute afterwards.
+public class ByteDataWriter {
+
+	private ByteBuffer buffer;
+	private int flushed; // absolute position of the first byte in the buffer
+	private final TreeSet<Integer> slots = new TreeSet<>(); // reserved and not patched yet
+
+	public ByteDataWriter() {
+		this(ByteOrder.LITTLE_ENDIAN);
+	}
+	public ByteDataWriter(ByteOrder order) {
+		this(256, order);
+	}
+	public ByteDataWriter(int initialCapacity, ByteOrder order) {
+		buffer = ByteBuffer.allocate(Math.max(initialCapacity, 16)).order(order);
+	}
+
+	public ByteOrder order() {
+		return buffer.order();
+	}
+	public void order(ByteOrder order) {
+		buffer.order(order);
+	}
+
+	public int position() {
+		return flushed + buffer.position();
+	}
+
+	private void ensure(int bytes) {
+		if(buffer.remaining() >= bytes) {
+			return;
+		}
+		long needed = (long) buffer.position() + bytes;
+		if(flushed + needed > Integer.MAX_VALUE) {
+			throw new UnsupportedOperationException("ByteDataWriter is limited to 2GB, requested "+(flushed + needed)+" bytes");
+		}
+		int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(needed, buffer.capacity()*2L));
+		ByteBuffer grown = ByteBuffer.allocate(capacity).order(buffer.order());
+		buffer.flip();
+		grown.put(buffer);
+		buffer = grown;
+	}
+
+
+	public ByteDataWriter putByte(int b) {
+		ensure(1);
+		buffer.put((byte) b);
+		return this;
+	}
+	public ByteDataWriter putShort(int s) {
+		ensure(2);
+		buffer.putShort((short) s);
+		return this;
+	}
+	public ByteDataWriter putU24(int i) {
+		ensure(3);
+		putU24(buffer.position(), buffer, i);
+		buffer.position(buffer.position()+3);
+		return this;
+	}
+	public ByteDataWriter putInt(int i) {
+		ensure(4);
+		buffer.putInt(i);
+		return this;
+	}
+	public ByteDataWriter putLong(long l) {
+		ensure(8);
+		buffer.putLong(l);
+		return this;
+	}
+	public ByteDataWriter putFloat(float f) {
+		ensure(4);
+		buffer.putFloat(f);
+		return this;
+	}
+	public ByteDataWriter putDouble(double d) {
+		ensure(8);
+		buffer.putDouble(d);
+		return this;
+	}
+
+	public ByteDataWriter putBytes(byte[] data) {
+		return putBytes(data, 0, data.length);
+	}
+	public ByteDataWriter putBytes(byte[] data, int offset, int count) {
+		ensure(count);
+		buffer.put(data, offset, count);
+		return this;
+	}
+	// the remaining bytes of data, its position is not changed
+	public ByteDataWriter putBytes(ByteBuffer data) {
+		ensure(data.remaining());
+		buffer.put(data.duplicate());
+		return this;
+	}
+
+	// bulk writes through typed views on the buffer
+	public ByteDataWriter putShorts(short[] data, int offset, int count) {
+		ensure(count*2);
+		buffer.asShortBuffer().put(data, offset, count);
+		buffer.position(buffer.position()+count*2);
+		return this;
+	}
+	public ByteDataWriter putInts(int[] data, int offset, int count) {
+		ensure(count*4);
+		buffer.asIntBuffer().put(data, offset, count);
+		buffer.position(buffer.position()+count*4);
+		return this;
+	}
+	public ByteDataWriter putFloats(float[] data, int offset, int count) {
+		ensure(count*4);
+		buffer.asFloatBuffer().put(data, offset, count);
+		buffer.position(buffer.position()+count*4);
+		return this;
+	}
+	public ByteDataWriter putFloats(float[] data) {
+		return putFloats(data, 0, data.length);
+	}
+	public ByteDataWriter putHalf(float f) {
+		return putShort(ByteConversions.floatToHalf(f));
+	}
+	public ByteDataWriter putHalfs(float[] data, int offset, int count) {
+		ensure(count*2);
+		ByteConversions.floatsToHalfs(data, offset, count, buffer, buffer.position(), buffer.order());
+		buffer.position(buffer.position()+count*2);
+		return this;
+	}
+
+	public ByteDataWriter putVector3F(Vector3f v) {
+		return putFloat(v.x).putFloat(v.y).putFloat(v.z);
+	}
+	public ByteDataWriter putVector2Fs(Vector2f[] src, int offset, int count) {
+		ensure(count*8);
+		Vector2f.toData(src, offset, count, buffer, buffer.position(), buffer.order());
+		buffer.position(buffer.position()+count*8);
+		return this;
+	}
+	public ByteDataWriter putVector3Fs(Vector3f[] src, int offset, int count) {
+		ensure(count*12);
+		Vector3f.toData(src, offset, count, buffer, buffer.position(), buffer.order());
+		buffer.position(buffer.position()+count*12);
+		return this;
+	}
+	public ByteDataWriter putQuatfs(Quatf[] src, int offset, int count) {
+		ensure(count*16);
+		Quatf.toData(src, offset, count, buffer, buffer.position(), buffer.order());
+		buffer.position(buffer.position()+count*16);
+		return this;
+	}
+
+	public ByteDataWriter putString(String s, StringType type) {
+		return putString(s, type, StandardCharsets.UTF_8);
+	}
+	public ByteDataWriter putString(String s, StringType type, Charset encoding) {
+		byte[] bytes = s.getBytes(encoding);
+		switch(type) {
+		case NULL_TERMINATED -> {
+			putBytes(bytes);
+			putByte(0);
+		}
+		case BYTE_LEN_PREFIX -> {
+			if(bytes.length > 0xFF) {
+				throw new UnsupportedOperationException("String too long for a byte length prefix: "+bytes.length+" bytes");
+			}
+			putByte(bytes.length);
+			putBytes(bytes);
+		}
+		case SHORT_LEN_PREFIX -> {
+			if(bytes.length > 0xFFFF) {
+				throw new UnsupportedOperationException("String too long for a short length prefix: "+bytes.length+" bytes");
+			}
+			putShort(bytes.length);
+			putBytes(bytes);
+		}
+		}
+		return this;
+	}
+	// without prefix or terminator, e.g. magics
+	public ByteDataWriter putString(String s) {
+		return putBytes(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public ByteDataWriter align(int alignment) {
+		return align(alignment, (byte) 0);
+	}
+	public ByteDataWriter align(int alignment, byte fillValue) {
+		int difference = (alignment-(position()%alignment))%alignment;
+		ensure(difference);
+		for(int i=0;i<difference;i++) {
+			buffer.put(fillValue);
+		}
+		return this;
+	}
+
+
+	// skips the bytes and returns their position, flush stops there until they are patched
+	public int reserve(int bytes) {
+		int position = position();
+		ensure(bytes);
+		for(int i=0;i<bytes;i++) {
+			buffer.put((byte) 0);
+		}
+		slots.add(position);
+		return position;
+	}
+	public int reserveInt() {
+		return reserve(4);
+	}
+
+	// absolute writes, these don't change the current position and release a reserved slot at the position
+	public ByteDataWriter putByte(int position, int b) {
+		buffer.put(patch(position, 1), (byte) b);
+		return this;
+	}
+	public ByteDataWriter putShort(int position, int s) {
+		buffer.putShort(patch(position, 2), (short) s);
+		return this;
+	}
+	public ByteDataWriter putU24(int position, int i) {
+		putU24(patch(position, 3), buffer, i);
+		return this;
+	}
+	public ByteDataWriter putInt(int position, int i) {
+		buffer.putInt(patch(position, 4), i);
+		return this;
+	}
+	public ByteDataWriter putFloat(int position, float f) {
+		buffer.putFloat(patch(position, 4), f);
+		return this;
+	}
+
+	private int patch(int position, int bytes) {
+		if(position < flushed || position + bytes > position()) {
+			throw new UnsupportedOperationException("Can't patch "+bytes+" bytes at "+position+", only "+flushed+" until "+position()+" are buffered");
+		}
+		slots.remove(position);
+		return position - flushed;
+	}
+
+	private static void putU24(int index, ByteBuffer buffer, int i) {
+		if(buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+			buffer.put(index, (byte) i).put(index+1, (byte) (i >> 8)).put(index+2, (byte) (i >> 16));
+		} else {
+			buffer.put(index, (byte) (i >> 16)).put(index+1, (byte) (i >> 8)).put(index+2, (byte) i);
+		}
+	}
+
+
+	// writes all bytes before the first unpatched slot, returns the number of written bytes
+	public int flush(WritableByteChannel out) throws IOException {
+		int end = (slots.isEmpty() ? position() : slots.first()) - flushed;
+		if(end == 0) {
+			return 0;
+		}
+		buffer.flip();
+		int limit = buffer.limit();
+		buffer.limit(end);
+		while(buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.limit(limit);
+		buffer.compact();
+		flushed += end;
+		return end;
+	}
+
+	// all written bytes, only possible if nothing was flushed yet
+	public byte[] toByteArray() {
+		if(flushed != 0) {
+			throw new UnsupportedOperationException("The first "+flushed+" bytes were already flushed");
+		}
+		if(!slots.isEmpty()) {
+			throw new UnsupportedOperationException("Reserved slot at "+slots.first()+" was never patched");
+		}
+		byte[] data = new byte[buffer.position()];
+		buffer.get(0, data);
+		return data;
+	}
+
+}
@@ -0,0 +1,168 @@
+package util;
+
+// allocation-free intersection tests on plain float coordinates, used by the collision queries
+public class Intersections {
+
+	private static final float EPSILON = 0.00000011921f;
+
+	// Moeller-Trumbore, both sides of the triangle are hit.
+	// returns the distance along the ray (in multiples of the direction), or -1 if there is no hit within [0, maxDistance]
+	public static float rayTriangle(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance,
+			float ax, float ay, float az, float bx, float by, float bz, float cx, float cy, float cz) {
+		float e1x = bx-ax, e1y = by-ay, e1z = bz-az;
+		float e2x = cx-ax, e2y = cy-ay, e2z = cz-az;
+		float px = dy*e2z - dz*e2y, py = dz*e2x - dx*e2z, pz = dx*e2y - dy*e2x;
+		float det = e1x*px + e1y*py + e1z*pz;
+		if(det > -EPSILON && det < EPSILON) {
+			return -1;
+		}
+		float invDet = 1 / det;
+		float tx = ox-ax, ty = oy-ay, tz = oz-az;
+		float u = (tx*px + ty*py + tz*pz) * invDet;
+		if(u < 0 || u > 1) {
+			return -1;
+		}
+		float qx = ty*e1z - tz*e1y, qy = tz*e1x - tx*e1z, qz = tx*e1y - ty*e1x;
+		float v = (dx*qx + dy*qy + dz*qz) * invDet;
+		if(v < 0 || u + v > 1) {
+			return -1;
+		}
+		float t = (e2x*qx + e2y*qy + e2z*qz) * invDet;
+		return t >= 0 && t <= maxDistance ? t : -1;
+	}
+
+	// slab test, returns the distance at which the ray enters the box (0 if it starts inside),
+	// or -1 if the box is not hit within [0, maxDistance]
+	public static float rayAabb(float ox, float oy, float oz, float invDx, float invDy, float invDz, float maxDistance,
+			float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		float tMin = 0, tMax = maxDistance;
+		if(Float.isInfinite(invDx)) {
+			if(ox < minX || ox > maxX) return -1;
+		} else {
+			float t1 = (minX-ox)*invDx, t2 = (maxX-ox)*invDx;
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+		}
+		if(Float.isInfinite(invDy)) {
+			if(oy < minY || oy > maxY) return -1;
+		} else {
+			float t1 = (minY-oy)*invDy, t2 = (maxY-oy)*invDy;
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+		}
+		if(Float.isInfinite(invDz)) {
+			if(oz < minZ || oz > maxZ) return -1;
+		} else {
+			float t1 = (minZ-oz)*invDz, t2 = (maxZ-oz)*invDz;
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+		}
+		return tMin <= tMax ? tMin : -1;
+	}
+	// one axis of the slab test. a zero direction component has an infinite inverse, the origin is checked against
+	// the slab instead of multiplying, (min-o)*inv would be 0*Inf = NaN for origins on a face
+	public static boolean insideSlab(float o, float inv, float min, float max) {
+		return !Float.isInfinite(inv) || (o >= min && o <= max);
+	}
+
+	public static boolean aabbAabb(float minX1, float minY1, float minZ1, float maxX1, float maxY1, float maxZ1,
+			float minX2, float minY2, float minZ2, float maxX2, float maxY2, float maxZ2) {
+		return minX1 <= maxX2 && maxX1 >= minX2 && minY1 <= maxY2 && maxY1 >= minY2 && minZ1 <= maxZ2 && maxZ1 >= minZ2;
+	}
+
+	public static boolean sphereAabb(float cx, float cy, float cz, float radius,
+			float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		float dx = cx - Math.max(minX, Math.min(cx, maxX));
+		float dy = cy - Math.max(minY, Math.min(cy, maxY));
+		float dz = cz - Math.max(minZ, Math.min(cz, maxZ));
+		return dx*dx + dy*dy + dz*dz <= radius*radius;
+	}
+
+	// separating axis test (Akenine-Moeller)
+	public static boolean triangleAabb(float ax, float ay, float az, float bx, float by, float bz, float cx, float cy, float cz,
+			float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		float hx = (maxX-minX)*0.5f, hy = (maxY-minY)*0.5f, hz = (maxZ-minZ)*0.5f;
+		float mx = minX+hx, my = minY+hy, mz = minZ+hz;
+		float v0x = ax-mx, v0y = ay-my, v0z = az-mz;
+		float v1x = bx-mx, v1y = by-my, v1z = bz-mz;
+		float v2x = cx-mx, v2y = cy-my, v2z = cz-mz;
+
+		// box axes
+		if(Math.max(v0x, Math.max(v1x, v2x)) < -hx || Math.min(v0x, Math.min(v1x, v2x)) > hx) return false;
+		if(Math.max(v0y, Math.max(v1y, v2y)) < -hy || Math.min(v0y, Math.min(v1y, v2y)) > hy) return false;
+		if(Math.max(v0z, Math.max(v1z, v2z)) < -hz || Math.min(v0z, Math.min(v1z, v2z)) > hz) return false;
+
+		// triangle normal
+		float e0x = v1x-v0x, e0y = v1y-v0y, e0z = v1z-v0z;
+		float e1x = v2x-v1x, e1y = v2y-v1y, e1z = v2z-v1z;
+		float e2x = v0x-v2x, e2y = v0y-v2y, e2z = v0z-v2z;
+		float nx = e0y*e1z - e0z*e1y, ny = e0z*e1x - e0x*e1z, nz = e0x*e1y - e0y*e1x;
+		if(Math.abs(nx*v0x + ny*v0y + nz*v0z) > hx*Math.abs(nx) + hy*Math.abs(ny) + hz*Math.abs(nz)) return false;
+
+		// cross products of the edges with the box axes
+		return !separatedByEdge(e0x, e0y, e0z, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z, hx, hy, hz)
+			&& !separatedByEdge(e1x, e1y, e1z, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z, hx, hy, hz)
+			&& !separatedByEdge(e2x, e2y, e2z, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z, hx, hy, hz);
+	}
+
+	private static boolean separatedByEdge(float ex, float ey, float ez,
+			float v0x, float v0y, float v0z, float v1x, float v1y, float v1z, float v2x, float v2y, float v2z,
+			float hx, float hy, float hz) {
+		return separated(0, ez, -ey, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z, hy*Math.abs(ez) + hz*Math.abs(ey))
+			|| separated(-ez, 0, ex, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z, hx*Math.abs(ez) + hz*Math.abs(ex))
+			|| separated(ey, -ex, 0, v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z, hx*Math.abs(ey) + hy*Math.abs(ex));
+	}
+
+	private static boolean separated(float axisX, float axisY, float axisZ,
+			float v0x, float v0y, float v0z, float v1x, float v1y, float v1z, float v2x, float v2y, float v2z, float radius) {
+		float p0 = axisX*v0x + axisY*v0y + axisZ*v0z;
+		float p1 = axisX*v1x + axisY*v1y + axisZ*v1z;
+		float p2 = axisX*v2x + axisY*v2y + axisZ*v2z;
+		return Math.min(p0, Math.min(p1, p2)) > radius || Math.max(p0, Math.max(p1, p2)) < -radius;
+	}
+
+	// closest point on the triangle (Ericson), compared to the radius
+	public static boolean triangleSphere(float ax, float ay, float az, float bx, float by, float bz, float cx, float cy, float cz,
+			float px, float py, float pz, float radius) {
+		float abx = bx-ax, aby = by-ay, abz = bz-az;
+		float acx = cx-ax, acy = cy-ay, acz = cz-az;
+		float apx = px-ax, apy = py-ay, apz = pz-az;
+		float d1 = abx*apx + aby*apy + abz*apz;
+		float d2 = acx*apx + acy*apy + acz*apz;
+		float qx, qy, qz;
+		if(d1 <= 0 && d2 <= 0) {
+			qx = ax; qy = ay; qz = az;
+		} else {
+			float bpx = px-bx, bpy = py-by, bpz = pz-bz;
+			float d3 = abx*bpx + aby*bpy + abz*bpz;
+			float d4 = acx*bpx + acy*bpy + acz*bpz;
+			float cpx = px-cx, cpy = py-cy, cpz = pz-cz;
+			float d5 = abx*cpx + aby*cpy + abz*cpz;
+			float d6 = acx*cpx + acy*cpy + acz*cpz;
+			float vc = d1*d4 - d3*d2;
+			float vb = d5*d2 - d1*d6;
+			float va = d3*d6 - d5*d4;
+			if(d3 >= 0 && d4 <= d3) {
+				qx = bx; qy = by; qz = bz;
+			} else if(d6 >= 0 && d5 <= d6) {
+				qx = cx; qy = cy; qz = cz;
+			} else if(vc <= 0 && d1 >= 0 && d3 <= 0) {
+				float v = d1 / (d1-d3);
+				qx = ax+abx*v; qy = ay+aby*v; qz = az+abz*v;
+			} else if(vb <= 0 && d2 >= 0 && d6 <= 0) {
+				float w = d2 / (d2-d6);
+				qx = ax+acx*w; qy = ay+acy*w; qz = az+acz*w;
+			} else if(va <= 0 && (d4-d3) >= 0 && (d5-d6) >= 0) {
+				float w = (d4-d3) / ((d4-d3) + (d5-d6));
+				qx = bx+(cx-bx)*w; qy = by+(cy-by)*w; qz = bz+(cz-bz)*w;
+			} else {
+				float denom = 1 / (va+vb+vc);
+				float v = vb*denom, w = vc*denom;
+				qx = ax+abx*v+acx*w; qy = ay+aby*v+acy*w; qz = az+abz*v+acz*w;
+			}
+		}
+		float dx = px-qx, dy = py-qy, dz = pz-qz;
+		return dx*dx + dy*dy + dz*dz <= radius*radius;
+	}
+
+}
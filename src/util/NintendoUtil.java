@@ -11,8 +11,11 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.stream.IntStream;
@@ -33,6 +36,18 @@ public class NintendoUtil {
 	public static byte[] readFileToByte(File file) throws IOException {
 		return Files.readAllBytes(file.toPath());
 	}
+	
+	// read-only memory mapping, the file is paged in on access instead of being copied to the heap.
+	// ByteBuffers are int-indexed, so files are limited to 2GB
+	public static MappedByteBuffer mapFile(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new UnsupportedOperationException("Files larger than 2GB can't be mapped: "+file+" has "+size+" bytes");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
 
 	public static void writeToFile(File file, String string) throws FileNotFoundException {
 		if(string == null)
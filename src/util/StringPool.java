@@ -0,0 +1,67 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// bounded, lossy pool for deduplicating ASCII strings read from files (BYML keys, file names, ...).
+// every hash maps to one slot and a new string replaces the old one, so the memory use is fixed.
+// safe to share between threads: races only replace entries, strings are immutable.
+public class StringPool {
+
+	public static final StringPool SHARED = new StringPool(4096);
+
+	private final String[] strings;
+	private final int mask;
+
+	public StringPool(int size) {
+		int capacity = Integer.highestOneBit(Math.max(size, 16)*2-1);
+		strings = new String[capacity];
+		mask = capacity-1;
+	}
+
+	// the bytes have to be ASCII, the hash is the same as String.hashCode()
+	public String get(ByteBuffer buffer, int position, int length) {
+		int hash = 0;
+		for(int i=0;i<length;i++) {
+			hash = 31*hash + buffer.get(position+i);
+		}
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		String s = strings[slot];
+		if(s != null && matches(s, buffer, position, length)) {
+			return s;
+		}
+		if(buffer.hasArray()) {
+			s = new String(buffer.array(), buffer.arrayOffset()+position, length, StandardCharsets.ISO_8859_1);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(position, bytes);
+			s = new String(bytes, StandardCharsets.ISO_8859_1);
+		}
+		strings[slot] = s;
+		return s;
+	}
+
+	public String intern(String s) {
+		int hash = s.hashCode();
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		String pooled = strings[slot];
+		if(s.equals(pooled)) {
+			return pooled;
+		}
+		strings[slot] = s;
+		return s;
+	}
+
+	private static boolean matches(String s, ByteBuffer buffer, int position, int length) {
+		if(s.length() != length) {
+			return false;
+		}
+		for(int i=0;i<length;i++) {
+			if(s.charAt(i) != buffer.get(position+i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,15 @@
+package util;
+
+// how much of a file is checked while decoding it
+public enum ValidationLevel {
+	STRICT, // magics, expected values, positions, padding and all indices are checked
+	BOUNDS_ONLY, // expected values and positions are skipped, indices are still checked before they are used
+	TRUSTED; // only what's needed for decoding is read, e.g. for verified assets
+
+	public boolean checksValues() {
+		return this == STRICT;
+	}
+	public boolean checksIndices() {
+		return this != TRUSTED;
+	}
+}
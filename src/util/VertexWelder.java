@@ -0,0 +1,126 @@
+package util;
+
+import java.util.Arrays;
+
+// merges equal (or close) vertices of a flat xyz array in a single pass.
+// with epsilon 0 vertices have to be bitwise equal (like Vector3f.equals), otherwise a uniform grid
+// with a cell size of 2*epsilon is used and every vertex is merged into the first one within that distance.
+// welded vertices keep the order of their first occurrence.
+public class VertexWelder {
+
+	public final int[] remap; // input vertex => welded vertex
+	public final float[] vertices; // welded vertices, xyz
+	public final int count;
+
+	public VertexWelder(float[] xyz) {
+		this(xyz, 0);
+	}
+	public VertexWelder(float[] xyz, float epsilon) {
+		int n = xyz.length / 3;
+		remap = new int[n];
+		float[] welded = new float[xyz.length];
+		int weldedCount = epsilon > 0 ? weldGrid(xyz, n, epsilon, welded) : weldExact(xyz, n, welded);
+		vertices = weldedCount == n ? welded : Arrays.copyOf(welded, weldedCount*3);
+		count = weldedCount;
+	}
+
+	private int weldExact(float[] xyz, int n, float[] welded) {
+		int mask = tableSize(n) - 1;
+		int[] table = new int[mask+1]; // welded index + 1, 0 = empty
+		int weldedCount = 0;
+		for(int i=0;i<n;i++) {
+			int x = Float.floatToIntBits(xyz[i*3]), y = Float.floatToIntBits(xyz[i*3+1]), z = Float.floatToIntBits(xyz[i*3+2]);
+			int slot = hash(x, y, z) & mask;
+			int found;
+			while((found = table[slot]) != 0) {
+				int w = (found-1)*3;
+				if(Float.floatToIntBits(welded[w]) == x && Float.floatToIntBits(welded[w+1]) == y && Float.floatToIntBits(welded[w+2]) == z) {
+					break;
+				}
+				slot = (slot+1) & mask;
+			}
+			if(found == 0) {
+				System.arraycopy(xyz, i*3, welded, weldedCount*3, 3);
+				table[slot] = ++weldedCount;
+				found = weldedCount;
+			}
+			remap[i] = found-1;
+		}
+		return weldedCount;
+	}
+
+	private int weldGrid(float[] xyz, int n, float epsilon, float[] welded) {
+		int mask = tableSize(n) - 1;
+		// open addressing on the cell coordinates, every cell holds a linked list of welded vertices
+		int[] cellX = new int[mask+1], cellY = new int[mask+1], cellZ = new int[mask+1];
+		int[] cellHead = new int[mask+1]; // welded index + 1, 0 = empty slot
+		int[] next = new int[n]; // welded index + 1 of the next vertex in the same cell
+		float inverseCellSize = 1 / (2*epsilon);
+		float epsilonSquared = epsilon*epsilon;
+
+		int weldedCount = 0;
+		for(int i=0;i<n;i++) {
+			float x = xyz[i*3], y = xyz[i*3+1], z = xyz[i*3+2];
+			float gx = x*inverseCellSize, gy = y*inverseCellSize, gz = z*inverseCellSize;
+			int cx = (int) Math.floor(gx), cy = (int) Math.floor(gy), cz = (int) Math.floor(gz);
+			// only the neighbor cells on the closer side can be within epsilon
+			int nx = gx-cx < 0.5f ? -1 : 1, ny = gy-cy < 0.5f ? -1 : 1, nz = gz-cz < 0.5f ? -1 : 1;
+
+			int best = Integer.MAX_VALUE;
+			for(int dz=Math.min(0, nz);dz<=Math.max(0, nz);dz++) {
+				for(int dy=Math.min(0, ny);dy<=Math.max(0, ny);dy++) {
+					for(int dx=Math.min(0, nx);dx<=Math.max(0, nx);dx++) {
+						int slot = findCell(cellX, cellY, cellZ, cellHead, mask, cx+dx, cy+dy, cz+dz);
+						for(int w = slot < 0 ? 0 : cellHead[slot]; w != 0; w = next[w-1]) {
+							int o = (w-1)*3;
+							float ox = welded[o]-x, oy = welded[o+1]-y, oz = welded[o+2]-z;
+							if(w-1 < best && ox*ox + oy*oy + oz*oz <= epsilonSquared) {
+								best = w-1;
+							}
+						}
+					}
+				}
+			}
+
+			if(best == Integer.MAX_VALUE) {
+				best = weldedCount++;
+				System.arraycopy(xyz, i*3, welded, best*3, 3);
+				int slot = findCell(cellX, cellY, cellZ, cellHead, mask, cx, cy, cz);
+				if(slot < 0) {
+					slot = -slot-1;
+					cellX[slot] = cx;
+					cellY[slot] = cy;
+					cellZ[slot] = cz;
+				}
+				next[best] = cellHead[slot];
+				cellHead[slot] = best+1;
+			}
+			remap[i] = best;
+		}
+		return weldedCount;
+	}
+
+	// returns the slot of the cell, or -(free slot)-1 if it doesn't exist yet
+	private static int findCell(int[] cellX, int[] cellY, int[] cellZ, int[] cellHead, int mask, int x, int y, int z) {
+		int slot = hash(x, y, z) & mask;
+		while(cellHead[slot] != 0) {
+			if(cellX[slot] == x && cellY[slot] == y && cellZ[slot] == z) {
+				return slot;
+			}
+			slot = (slot+1) & mask;
+		}
+		return -slot-1;
+	}
+
+	private static int tableSize(int n) {
+		return Integer.highestOneBit(Math.max(n, 4)*2-1) << 1;
+	}
+
+	private static int hash(int x, int y, int z) {
+		int h = (x * 0x9E3779B1 + y) * 0x85EBCA77 + z;
+		h ^= h >>> 16;
+		h *= 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+}